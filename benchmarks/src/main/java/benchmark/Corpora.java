@@ -0,0 +1,29 @@
+package benchmark;
+
+import java.io.File;
+
+/**
+ * Finds the benchmark corpora (the length_*.txt and distinct_*.txt files at
+ * the repository root).
+ */
+final class Corpora {
+	private Corpora() {
+	}
+
+	/**
+	 * Resolves a corpus name against {@code -Dcorpus.dir}, which defaults to the
+	 * parent of the benchmarks module.
+	 *
+	 * @param name - file name of the corpus
+	 * @return the path of the corpus
+	 * @throws IllegalStateException if the corpus does not exist
+	 */
+	static String resolve(String name) {
+		File file = new File(System.getProperty("corpus.dir", ".."), name);
+		if (!file.isFile()) {
+			throw new IllegalStateException("Corpus not found: " + file.getAbsolutePath()
+					+ " (set -Dcorpus.dir to the directory holding the corpora)");
+		}
+		return file.getPath();
+	}
+}
@@ -0,0 +1,71 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import comprehensive.GenerationEngine;
+import comprehensive.GenerationMode;
+import comprehensive.Generator;
+
+/**
+ * Measures GenerationEngine, which reuses its output buffer, against
+ * generateText on the same frozen library. Run with the GC profiler
+ * (BenchmarkRunner adds it): gc.alloc.rate.norm of the engine stays near
+ * 0 B/op however large k is, while generateText allocates its text.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class EngineBenchmark {
+
+	@Param({ "length_100000.txt", "distinct_100000.txt" })
+	public String corpus;
+
+	@Param({ "random", "deterministic", "probable" })
+	public String mode;
+
+	@Param({ "100", "10000" })
+	public int k;
+
+	private Generator generator;
+	private GenerationEngine engine;
+	private GenerationMode generationMode;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		generator = new Generator();
+		generator.createLibraryFromFile(Corpora.resolve(corpus));
+		generator.freeze();
+		engine = generator.createEngine();
+		generationMode = GenerationMode.fromString(mode);
+
+		// Grow the engine's buffer outside the measurement
+		engine.generate("1", k, generationMode);
+	}
+
+	@Benchmark
+	public int engine() {
+		return engine.generate("1", k, generationMode);
+	}
+
+	@Benchmark
+	public String generateText() {
+		return generator.generateText("1", k, mode);
+	}
+}
@@ -0,0 +1,63 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import comprehensive.Generator;
+
+/**
+ * Measures generateText in all three modes. The library is built once per
+ * trial (not measured), either left mutable or frozen.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class GenerationBenchmark {
+
+	@Param({ "length_100000.txt", "distinct_100000.txt" })
+	public String corpus;
+
+	@Param({ "random", "deterministic", "probable" })
+	public String mode;
+
+	@Param({ "100", "10000" })
+	public int k;
+
+	@Param({ "false", "true" })
+	public boolean frozen;
+
+	private Generator generator;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		generator = new Generator();
+		generator.createLibraryFromFile(Corpora.resolve(corpus));
+		if (frozen) {
+			generator.freeze();
+		}
+
+		// Warm up the lazily built caches of the mutable library outside the measurement
+		generator.generateText("1", k, mode);
+	}
+
+	@Benchmark
+	public String generateText() {
+		return generator.generateText("1", k, mode);
+	}
+}
@@ -0,0 +1,50 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import comprehensive.Generator;
+
+/**
+ * Measures building a library from the existing corpora, both the ones that
+ * grow in length with a small vocabulary and the ones that grow in distinct
+ * words.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class LibraryCreationBenchmark {
+
+	@Param({ "length_100000.txt", "length_500000.txt", "length_1000000.txt",
+			"distinct_10000.txt", "distinct_100000.txt", "distinct_600000.txt" })
+	public String corpus;
+
+	private String path;
+
+	@Setup
+	public void setUp() {
+		path = Corpora.resolve(corpus);
+	}
+
+	@Benchmark
+	public Generator createLibraryFromFile() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(path);
+		return generator;
+	}
+}
@@ -0,0 +1,167 @@
+package comprehensive;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * This class picks a random adjacent word in constant time using Walker's alias
+ * method (in Vose's form). Every adjacent word gets a column, and every column
+ * is split between its own word and one "alias" word. Picking a word takes one
+ * random column, one random number to choose between the column's word and its
+ * alias, and two array reads.
+ *
+ * The table is built with integer arithmetic, so the chance of picking a word
+ * is exactly its frequency divided by the total frequency, the same as the
+ * weighted scan it replaces.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/2/25
+ */
+public class AliasSampler {
+	private final int[] words;
+	private final int[] thresholds;
+	private final int[] aliases;
+	private final int totalFrequency;
+
+	/**
+	 * Builds the alias table for the given adjacent words.
+	 *
+	 * @param adjacentWords - non-empty map of word ids to frequencies
+	 */
+	public AliasSampler(IntCountMap adjacentWords) {
+		int n = adjacentWords.size();
+		this.words = new int[n];
+		this.thresholds = new int[n];
+		this.aliases = new int[n];
+
+		int[] counts = new int[n];
+		int column = 0;
+		for (int slot = 0; slot < adjacentWords.capacity(); slot++) {
+			if (adjacentWords.keyAt(slot) != IntCountMap.EMPTY) {
+				words[column] = adjacentWords.keyAt(slot);
+				counts[column] = adjacentWords.countAt(slot);
+				column++;
+			}
+		}
+		this.totalFrequency = buildTable(counts, 0, n, thresholds, aliases);
+	}
+
+	/**
+	 * Builds the alias table for words given as parallel arrays.
+	 *
+	 * @param words  - non-empty array of word ids, kept by the sampler
+	 * @param counts - frequency of each word, all positive
+	 */
+	AliasSampler(int[] words, int[] counts) {
+		int n = words.length;
+		this.words = words;
+		this.thresholds = new int[n];
+		this.aliases = new int[n];
+		this.totalFrequency = buildTable(counts, 0, n, thresholds, aliases);
+	}
+
+	/**
+	 * Builds the alias table for the frequencies in {@code counts[from, to)} and
+	 * writes it to the same range of {@code thresholds} and {@code aliases}. Column
+	 * i keeps its own word when a value in [0, total frequency) is below
+	 * {@code thresholds[from + i]}, and otherwise picks column
+	 * {@code aliases[from + i]} (counted from {@code from}).
+	 *
+	 * @param counts     - frequencies of the words, all positive
+	 * @param from       - first index of the range
+	 * @param to         - index just past the range
+	 * @param thresholds - receives the thresholds of the columns
+	 * @param aliases    - receives the alias column of each column
+	 * @return the total frequency of the range
+	 */
+	static int buildTable(int[] counts, int from, int to, int[] thresholds, int[] aliases) {
+		int n = to - from;
+		long[] mass = new long[n];
+		long total = 0;
+		for (int i = 0; i < n; i++) {
+			mass[i] = counts[from + i];
+			total += mass[i];
+		}
+		int totalFrequency = (int) total;
+
+		// Every column holds totalFrequency units and word i owns frequency * n of
+		// the n * totalFrequency units in the table
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0;
+		int largeCount = 0;
+		for (int i = 0; i < n; i++) {
+			mass[i] *= n;
+			if (mass[i] < totalFrequency) {
+				small[smallCount++] = i;
+			} else {
+				large[largeCount++] = i;
+			}
+		}
+
+		// Fill up each small column with units taken from a large one
+		while (smallCount > 0 && largeCount > 0) {
+			int s = small[--smallCount];
+			int l = large[--largeCount];
+			thresholds[from + s] = (int) mass[s];
+			aliases[from + s] = l;
+			mass[l] -= totalFrequency - mass[s];
+			if (mass[l] < totalFrequency) {
+				small[smallCount++] = l;
+			} else {
+				large[largeCount++] = l;
+			}
+		}
+
+		// What is left owns its whole column
+		while (largeCount > 0) {
+			int l = large[--largeCount];
+			thresholds[from + l] = totalFrequency;
+			aliases[from + l] = l;
+		}
+		while (smallCount > 0) {
+			int s = small[--smallCount];
+			thresholds[from + s] = totalFrequency;
+			aliases[from + s] = s;
+		}
+		return totalFrequency;
+	}
+
+	/**
+	 * Picks a random word, weighted by frequency.
+	 *
+	 * @param random - source of random numbers
+	 * @return the id of the chosen word
+	 */
+	public int sample(RandomGenerator random) {
+		return select(random.nextInt(words.length), random.nextInt(totalFrequency));
+	}
+
+	/**
+	 * Picks the word for a given column and a value in [0, total frequency).
+	 *
+	 * @param column - column of the table
+	 * @param value  - chooses between the column's word and its alias
+	 * @return the id of the chosen word
+	 */
+	int select(int column, int value) {
+		return words[value < thresholds[column] ? column : aliases[column]];
+	}
+
+	/**
+	 * Get the number of columns of the table, which is the number of adjacent words.
+	 *
+	 * @return the number of columns
+	 */
+	public int size() {
+		return words.length;
+	}
+
+	/**
+	 * Get the total frequency of all adjacent words.
+	 *
+	 * @return the total frequency
+	 */
+	public int getTotalFrequency() {
+		return totalFrequency;
+	}
+}
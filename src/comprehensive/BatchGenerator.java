@@ -0,0 +1,231 @@
+package comprehensive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class answers a batch of generation requests against one shared library
+ * on a fork-join pool. Every distinct seed is lower-cased and looked up once,
+ * and the requests are grouped by seed and mode:
+ *
+ * - "probable" and "deterministic" text never changes for a seed, and the text
+ * for a smaller k is always the start of the text for a larger k, so each group
+ * generates the text for its largest k once and hands every request the words
+ * it asked for.
+ * - "random" requests are independent, so each one is a task of its own.
+ *
+ * Every request is reported to the metrics once, like a single call to
+ * generateText. A request that shares the text of its group is reported with
+ * the time its group took.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/12/25
+ */
+class BatchGenerator {
+
+	private BatchGenerator() {
+	}
+
+	/**
+	 * Generates the text of every request.
+	 *
+	 * @param graph    - library to generate from; must be safe to read from
+	 *                 several threads, like a FrozenLibrary
+	 * @param requests - the requests
+	 * @param pool     - pool that runs the groups
+	 * @param metrics  - receives the latency and the restarts of every request
+	 * @return the text of every request, in the order of the requests
+	 */
+	static String[] generate(WordGraph graph, List<GenerationRequest> requests, ForkJoinPool pool,
+			GeneratorMetrics metrics) {
+		String[] results = new String[requests.size()];
+
+		// Look up every distinct seed once, and collect the requests that can share
+		// their text
+		HashMap<String, Integer> seedIds = new HashMap<String, Integer>();
+		HashMap<String, Group> sharedGroups = new HashMap<String, Group>();
+		ArrayList<Group> groups = new ArrayList<Group>();
+		for (int i = 0; i < requests.size(); i++) {
+			GenerationRequest request = requests.get(i);
+			String seedLower = request.getSeed().toLowerCase();
+			int seedId = seedIds.computeIfAbsent(seedLower, graph::getId);
+
+			Group group;
+			if (request.getMode() == GenerationMode.RANDOM) {
+				group = new Group(seedLower, seedId, GenerationMode.RANDOM);
+				groups.add(group);
+			} else {
+				group = sharedGroups.get(request.getMode().ordinal() + seedLower);
+				if (group == null) {
+					group = new Group(seedLower, seedId, request.getMode());
+					sharedGroups.put(request.getMode().ordinal() + seedLower, group);
+					groups.add(group);
+				}
+			}
+			group.add(i, request.getK());
+		}
+
+		if (!groups.isEmpty()) {
+			pool.invoke(new GroupTask(graph, groups, results, metrics, 0, groups.size()));
+		}
+		return results;
+	}
+
+	/**
+	 * Requests for the same seed and mode.
+	 */
+	private static class Group {
+		private final String seedLower;
+		private final int seedId;
+		private final GenerationMode mode;
+		private int[] requestIndices = new int[1];
+		private int[] ks = new int[1];
+		private int size;
+
+		Group(String seedLower, int seedId, GenerationMode mode) {
+			this.seedLower = seedLower;
+			this.seedId = seedId;
+			this.mode = mode;
+		}
+
+		void add(int requestIndex, int k) {
+			if (size == ks.length) {
+				requestIndices = Arrays.copyOf(requestIndices, size * 2);
+				ks = Arrays.copyOf(ks, size * 2);
+			}
+			requestIndices[size] = requestIndex;
+			ks[size] = k;
+			size++;
+		}
+
+		/**
+		 * Generates the text of every request of this group into results.
+		 */
+		void generate(WordGraph graph, String[] results, GeneratorMetrics metrics) {
+			long start = metrics == GeneratorMetrics.NONE ? 0 : System.nanoTime();
+			if (seedId == -1) {
+				String error = Generator.seedNotFound(seedLower);
+				for (int i = 0; i < size; i++) {
+					results[requestIndices[i]] = error;
+				}
+				completed(metrics, start);
+				return;
+			}
+
+			// A single request, a random one, or a seed that is its own text has
+			// nothing to share
+			if (size == 1 || mode == GenerationMode.RANDOM
+					|| (mode == GenerationMode.DETERMINISTIC && graph.getNextWordCount(seedId) == 0)) {
+				for (int i = 0; i < size; i++) {
+					long requestStart = metrics == GeneratorMetrics.NONE ? 0 : System.nanoTime();
+					results[requestIndices[i]] = Generator.generateText(graph, seedId, ks[i], mode,
+							ThreadLocalRandom.current(), metrics);
+					if (metrics != GeneratorMetrics.NONE) {
+						metrics.generationCompleted(mode, ks[i], System.nanoTime() - requestStart);
+					}
+				}
+				return;
+			}
+
+			int maxK = ks[0];
+			for (int i = 1; i < size; i++) {
+				maxK = Math.max(maxK, ks[i]);
+			}
+
+			// Generate the longest text once and work out how many of its words
+			// every request gets
+			String text;
+			int[] wordCounts = new int[size];
+			if (mode == GenerationMode.PROBABLE) {
+				text = Generator.generateText(graph, seedId, maxK, mode, null);
+				for (int i = 0; i < size; i++) {
+					wordCounts[i] = Math.max(0, Math.min(ks[i], graph.getNextWordCount(seedId)));
+				}
+			} else {
+				DeterministicWalk walk = Generator.walkFrom(graph, seedId, Math.max(maxK, 1) + 1);
+				text = Generator.getDeterministicText(graph, walk, Generator.getDeterministicWordCount(walk, maxK));
+				for (int i = 0; i < size; i++) {
+					wordCounts[i] = Generator.getDeterministicWordCount(walk, ks[i]);
+					long restarts = metrics == GeneratorMetrics.NONE ? 0 : Generator.countRestarts(walk, wordCounts[i]);
+					if (restarts > 0) {
+						metrics.restartedFromSeed(mode, restarts);
+					}
+				}
+			}
+
+			// Words never contain spaces, so the end of every word is the next space
+			int[] wordEnds = new int[16];
+			int wordCount = 0;
+			for (int position = 0; position <= text.length(); position++) {
+				if (position == text.length() ? position > 0 : text.charAt(position) == ' ') {
+					if (wordCount == wordEnds.length) {
+						wordEnds = Arrays.copyOf(wordEnds, wordCount * 2);
+					}
+					wordEnds[wordCount++] = position;
+				}
+			}
+
+			for (int i = 0; i < size; i++) {
+				int count = wordCounts[i];
+				results[requestIndices[i]] = count == 0 ? "" : count == wordCount ? text
+						: text.substring(0, wordEnds[count - 1]);
+			}
+			completed(metrics, start);
+		}
+
+		/**
+		 * Reports every request of this group, with the time the group took.
+		 */
+		private void completed(GeneratorMetrics metrics, long start) {
+			if (metrics == GeneratorMetrics.NONE) {
+				return;
+			}
+			long nanos = System.nanoTime() - start;
+			for (int i = 0; i < size; i++) {
+				metrics.generationCompleted(mode, ks[i], nanos);
+			}
+		}
+	}
+
+	/**
+	 * Generates the groups {@code [low, high)}, splitting the work in half until a
+	 * single group is left.
+	 */
+	private static class GroupTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final transient WordGraph graph;
+		private final transient List<Group> groups;
+		private final String[] results;
+		private final transient GeneratorMetrics metrics;
+		private final int low;
+		private final int high;
+
+		GroupTask(WordGraph graph, List<Group> groups, String[] results, GeneratorMetrics metrics, int low,
+				int high) {
+			this.graph = graph;
+			this.groups = groups;
+			this.results = results;
+			this.metrics = metrics;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected void compute() {
+			if (high - low == 1) {
+				groups.get(low).generate(graph, results, metrics);
+				return;
+			}
+
+			int middle = (low + high) >>> 1;
+			invokeAll(new GroupTask(graph, groups, results, metrics, low, middle),
+					new GroupTask(graph, groups, results, metrics, middle, high));
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package comprehensive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import timing.TimingExperiment;
+
+/**
+ * Load test for ConcurrentGenerator: a fixed number of queries is split
+ * between a growing number of threads that share one frozen library. If
+ * throughput scales with cores, the time drops as threads are added, up to
+ * the number of cores.
+ */
+public class ConcurrentGenerationTimingExperiment extends TimingExperiment {
+    private static final String problemSizeDescription = "thread count";
+    private static final int problemSizeMin            =  1;
+    private static final int problemSizeCount          =  Runtime.getRuntime().availableProcessors();
+    private static final int problemSizeStep           =  1;
+    private static final int experimentIterationCount  =  10;
+    // Library and workload
+    private static final int INPUT_WORD_COUNT  = 1_000_000;
+    private static final int INPUT_VOCAB_SIZE  =     5_000;
+    private static final int QUERY_COUNT       =    20_000;
+    private static final int WORDS_PER_QUERY   =       100;
+
+    private final ConcurrentGenerator generator;
+    private ExecutorService threads;
+    private int threadCount;
+
+    public static void main(String[] args) {
+        new ConcurrentGenerationTimingExperiment().printResults();
+    }
+
+    public ConcurrentGenerationTimingExperiment() {
+        super(problemSizeDescription,
+              problemSizeMin, problemSizeCount, problemSizeStep,
+              experimentIterationCount);
+
+        // Build and freeze the shared library once (not timed)
+        String filePath = "concurrent_input.txt";
+        Random rng = new Random(1);
+        try (PrintWriter out = new PrintWriter(new File(filePath))) {
+            for (int i = 0; i < INPUT_WORD_COUNT; i++) {
+                out.print((rng.nextInt(INPUT_VOCAB_SIZE) + 1) + " ");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Generator library = new Generator();
+        try {
+            library.createLibraryFromFile(filePath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        new File(filePath).delete();
+        generator = new ConcurrentGenerator(library);
+    }
+
+    @Override
+    protected void setupExperiment(int problemSize) {
+        if (threads != null && threadCount == problemSize) {
+            return;
+        }
+        if (threads != null) {
+            threads.shutdown();
+        }
+        threads = Executors.newFixedThreadPool(problemSize);
+        threadCount = problemSize;
+    }
+
+    @Override
+    protected void runComputation() {
+        // Every thread answers its share of the queries, all in random mode
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int first = t;
+            results.add(threads.submit(() -> {
+                for (int q = first; q < QUERY_COUNT; q += threadCount) {
+                    generator.generateText(String.valueOf(q % INPUT_VOCAB_SIZE + 1), WORDS_PER_QUERY,
+                            GenerationMode.RANDOM);
+                }
+            }));
+        }
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void printResults() {
+        super.printResults();
+        threads.shutdown();
+    }
+}
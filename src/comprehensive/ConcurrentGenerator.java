@@ -0,0 +1,278 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.random.RandomGenerator;
+
+/**
+ * Generates text from one shared, frozen library on any number of threads at
+ * once. The library is never written to, every thread draws random numbers from
+ * its own ThreadLocalRandom, and the mode is resolved once per request, so no
+ * locking is needed.
+ *
+ * A ConcurrentGenerator holds a reference to an off-heap library until it is
+ * closed, so the library's memory can't be freed while it generates. Close it
+ * once no thread generates from it any more.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/10/25
+ */
+public class ConcurrentGenerator implements AutoCloseable {
+	private final WordGraph library;
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private volatile GeneratorMetrics metrics = GeneratorMetrics.NONE;
+
+	/**
+	 * Creates a ConcurrentGenerator for the library of a Generator, freezing the
+	 * library first if it is not frozen yet, which leaves the Generator frozen
+	 * and changes the seeded "random" text it gives (see
+	 * {@link Generator#generateText(String, int, String, long)}). An off-heap
+	 * library is shared as it is, and stays open until this is closed, even after
+	 * the Generator replaces or closes its library.
+	 *
+	 * @param generator - Generator holding a built library
+	 */
+	public ConcurrentGenerator(Generator generator) {
+		generator.freeze();
+		this.library = generator.isOffHeap() ? generator.getOffHeapLibrary().retain() : generator.getFrozenLibrary();
+	}
+
+	/**
+	 * Creates a ConcurrentGenerator for a frozen library.
+	 *
+	 * @param library - the library to share
+	 */
+	public ConcurrentGenerator(FrozenLibrary library) {
+		this.library = library;
+	}
+
+	/**
+	 * Creates a ConcurrentGenerator for an off-heap library, which stays open
+	 * until this is closed.
+	 *
+	 * @param library - the library to share
+	 * @throws IllegalStateException if the library is already closed
+	 */
+	public ConcurrentGenerator(OffHeapLibrary library) {
+		this.library = library.retain();
+	}
+
+	/**
+	 * Generates text the same way {@link Generator#generateText(String, Integer, String)}
+	 * does. Safe to call from many threads at once.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @return the generated text, or an error message if the seed is not in the library
+	 */
+	public String generateText(String seed, int k, GenerationMode mode) {
+		return Generator.generateText(library, seed, k, mode, ThreadLocalRandom.current(), metrics);
+	}
+
+	/**
+	 * Generates text with the given source of random numbers, which must not be
+	 * shared with other threads unless it is thread-safe itself.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @param random - Source of random numbers for "random" mode
+	 * @return the generated text, or an error message if the seed is not in the library
+	 */
+	public String generateText(String seed, int k, GenerationMode mode, RandomGenerator random) {
+		return Generator.generateText(library, seed, k, mode, random, metrics);
+	}
+
+	/**
+	 * Generates text with "random" mode drawing from a SplittableRandom seeded
+	 * with rngSeed, so the same library, seed, k and rngSeed always give the
+	 * same text. Safe to call from many threads at once. The text is the same as
+	 * {@link Generator#generateText(String, int, String, long)} gives for the
+	 * frozen library, not for the mutable library it was frozen from.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @param rngSeed - Seed of the random numbers
+	 * @return the generated text, or an error message if the seed is not in the library
+	 */
+	public String generateText(String seed, int k, GenerationMode mode, long rngSeed) {
+		return Generator.generateText(library, seed, k, mode, new SplittableRandom(rngSeed), metrics);
+	}
+
+	/**
+	 * Generates a long "random" text as several independent chains at once on
+	 * the common fork-join pool. See
+	 * {@link #generateChains(String, int, int, long, ForkJoinPool)}.
+	 *
+	 * @param seed - The seed/starting word of every chain
+	 * @param k - Total number of words to be generated
+	 * @param chains - Number of chains
+	 * @param rngSeed - Seed of the random numbers
+	 * @return the chains one after the other, or an error message if the seed is not in the library
+	 */
+	public String generateChains(String seed, int k, int chains, long rngSeed) {
+		return generateChains(seed, k, chains, rngSeed, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Generates a long "random" text as several independent chains at once.
+	 * Every chain starts from the seed and gets an equal share of the k words,
+	 * the first chains one word more if k does not divide evenly. Each chain
+	 * draws from its own SplittableRandom, split in chain order off one seeded
+	 * with rngSeed, so the text depends only on the library, seed, k, chains
+	 * and rngSeed, never on how the chains were scheduled. The chains are
+	 * joined in order with a space.
+	 *
+	 * @param seed - The seed/starting word of every chain
+	 * @param k - Total number of words to be generated
+	 * @param chains - Number of chains, at least 1; never more than k are used
+	 * @param rngSeed - Seed of the random numbers
+	 * @param pool - pool that generates the chains
+	 * @return the chains one after the other, or an error message if the seed is not in the library
+	 */
+	public String generateChains(String seed, int k, int chains, long rngSeed, ForkJoinPool pool) {
+		if (chains < 1) {
+			throw new IllegalArgumentException("Number of chains must be at least 1: " + chains);
+		}
+		String seedLower = seed.toLowerCase();
+		int seedId = library.getId(seedLower);
+		if (seedId == -1) {
+			return Generator.seedNotFound(seedLower);
+		}
+
+		// Split the streams up front, in order, so chain i always gets the same one
+		int chainCount = Math.max(1, Math.min(chains, k));
+		SplittableRandom root = new SplittableRandom(rngSeed);
+		SplittableRandom[] randoms = new SplittableRandom[chainCount];
+		int[] lengths = new int[chainCount];
+		for (int i = 0; i < chainCount; i++) {
+			randoms[i] = root.split();
+			lengths[i] = k / chainCount + (i < k % chainCount ? 1 : 0);
+		}
+
+		String[] texts = new String[chainCount];
+		pool.invoke(new ChainTask(library, seedId, lengths, randoms, texts, 0, chainCount));
+		return String.join(" ", texts);
+	}
+
+	/**
+	 * Generates text and writes it to a Writer as it is generated, the same way
+	 * {@link Generator#generateText(String, int, String, Writer)} does. Safe to
+	 * call from many threads at once, as long as each uses its own writer.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @param out - Where the text is written; flushed but not closed
+	 * @throws IOException If there's an error writing the text
+	 */
+	public void generateText(String seed, int k, GenerationMode mode, Writer out) throws IOException {
+		Generator.writeText(library, seed, k, mode, ThreadLocalRandom.current(), metrics, out);
+	}
+
+	/**
+	 * Generates the text of many requests at once on the common fork-join pool.
+	 * Each distinct seed is looked up once, and "probable" and "deterministic"
+	 * requests for the same seed share one generated text (see BatchGenerator).
+	 *
+	 * @param requests - the requests
+	 * @return the text of every request, in the order of the requests
+	 */
+	public List<String> generateTexts(List<GenerationRequest> requests) {
+		return generateTexts(requests, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Generates the text of many requests at once on the given pool. See
+	 * {@link #generateTexts(List)}.
+	 *
+	 * @param requests - the requests
+	 * @param pool - pool that generates the text
+	 * @return the text of every request, in the order of the requests
+	 */
+	public List<String> generateTexts(List<GenerationRequest> requests, ForkJoinPool pool) {
+		return List.of(BatchGenerator.generate(library, requests, pool, metrics));
+	}
+
+	/**
+	 * Sets where generation reports its measurements. Metrics are off
+	 * ({@link GeneratorMetrics#NONE}) until this is called. Every request of a
+	 * batch is reported as well.
+	 *
+	 * @param metrics - the metrics to report to, or null to switch them off
+	 */
+	public void setMetrics(GeneratorMetrics metrics) {
+		this.metrics = metrics == null ? GeneratorMetrics.NONE : metrics;
+	}
+
+	/**
+	 * Get the shared library.
+	 *
+	 * @return the frozen library, on or off the heap
+	 */
+	public WordGraph getLibrary() {
+		return library;
+	}
+
+	/**
+	 * Releases the reference this holds to an off-heap library, which frees the
+	 * library's memory if nobody else holds one. Nothing may be generated
+	 * afterwards. Closing more than once does nothing.
+	 */
+	@Override
+	public void close() {
+		if (library instanceof OffHeapLibrary && closed.compareAndSet(false, true)) {
+			((OffHeapLibrary) library).release();
+		}
+	}
+
+	/**
+	 * Generates the chains {@code [low, high)}, splitting the work in half until a
+	 * single chain is left.
+	 */
+	private static class ChainTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final transient WordGraph library;
+		private final int seedId;
+		private final int[] lengths;
+		private final SplittableRandom[] randoms;
+		private final String[] texts;
+		private final int low;
+		private final int high;
+
+		ChainTask(WordGraph library, int seedId, int[] lengths, SplittableRandom[] randoms, String[] texts, int low,
+				int high) {
+			this.library = library;
+			this.seedId = seedId;
+			this.lengths = lengths;
+			this.randoms = randoms;
+			this.texts = texts;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected void compute() {
+			if (high - low == 1) {
+				try (GenerationEngine engine = new GenerationEngine(library, randoms[low])) {
+					engine.generate(seedId, lengths[low], GenerationMode.RANDOM);
+					texts[low] = engine.toString();
+				}
+				return;
+			}
+
+			int middle = (low + high) >>> 1;
+			invokeAll(new ChainTask(library, seedId, lengths, randoms, texts, low, middle),
+					new ChainTask(library, seedId, lengths, randoms, texts, middle, high));
+		}
+	}
+}
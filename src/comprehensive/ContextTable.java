@@ -0,0 +1,375 @@
+package comprehensive;
+
+import java.util.Arrays;
+import java.util.function.IntToLongFunction;
+import java.util.random.RandomGenerator;
+
+/**
+ * This class interns the contexts of an NGramLibrary, where a context is a run
+ * of word ids, and counts the words that follow every context. Every distinct
+ * context gets a dense index (0, 1, 2, ...), and contexts of every length share
+ * one table.
+ *
+ * Nothing is kept per context as an object. The ids of all contexts are packed
+ * one after the other into a single int array, and the hash table stores a
+ * 64-bit hash of each context next to its index. A lookup compares the hashes
+ * first and then the ids themselves, so two contexts with the same hash are
+ * still told apart.
+ *
+ * The words following the contexts are counted the same way: every distinct
+ * (context, word) pair is one follower in a set of parallel int arrays, found
+ * through a second hash table and chained to the other followers of its
+ * context. The answers generation needs are the same as those of a WordEntry,
+ * and the most probable follower and the alias table of a context are kept
+ * until its followers change.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/10/25
+ */
+class ContextTable {
+	private static final int EMPTY = -1;
+
+	// Context i is words[starts[i] .. starts[i + 1])
+	private int[] words;
+	private int[] starts;
+	private long[] hashes;
+	private int[] table;
+	private int size;
+	// sizes[n - 1] is the number of contexts of n words
+	private final int[] sizes;
+
+	// Per context: its first follower, and its most probable next word or -1 if
+	// it was not asked for since the followers last changed
+	private int[] firstFollowers;
+	private int[] mostProbable;
+	// Per context, built on the first random pick after the followers changed;
+	// null until anything is picked at random
+	private AliasSampler[] samplers;
+
+	// Per follower: its context, its word, how often it followed the context, and
+	// the next follower of the same context
+	private int[] followerContexts;
+	private int[] followerWords;
+	private int[] followerCounts;
+	private int[] nextFollowers;
+	private int followerCount;
+	private int[] followerTable;
+
+	/**
+	 * Creates an empty table.
+	 *
+	 * @param maxLength - number of words in the longest context
+	 */
+	ContextTable(int maxLength) {
+		this.sizes = new int[maxLength];
+		this.words = new int[16];
+		this.starts = new int[17];
+		this.hashes = new long[16];
+		this.firstFollowers = new int[16];
+		this.mostProbable = new int[16];
+		this.table = new int[32];
+		Arrays.fill(table, EMPTY);
+
+		this.followerContexts = new int[16];
+		this.followerWords = new int[16];
+		this.followerCounts = new int[16];
+		this.nextFollowers = new int[16];
+		this.followerTable = new int[32];
+		Arrays.fill(followerTable, EMPTY);
+	}
+
+	/**
+	 * Get the number of distinct contexts of a given length in this table.
+	 *
+	 * @param length - number of words in the contexts
+	 * @return the number of contexts
+	 */
+	int size(int length) {
+		return sizes[length - 1];
+	}
+
+	/**
+	 * Looks up the context {@code ids[from .. from + length)} without adding it.
+	 *
+	 * @param ids    - buffer holding the context
+	 * @param from   - position of the first word of the context
+	 * @param length - number of words in the context
+	 * @return the index of the context, or -1 if it was never seen
+	 */
+	int find(int[] ids, int from, int length) {
+		long hash = hash(ids, from, length);
+		int mask = table.length - 1;
+		for (int slot = (int) hash & mask;; slot = (slot + 1) & mask) {
+			int index = table[slot];
+			if (index == EMPTY) {
+				return -1;
+			}
+			if (hashes[index] == hash && matches(index, ids, from, length)) {
+				return index;
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the context {@code ids[from .. from + length)}, adding
+	 * the context if it has not been seen before.
+	 *
+	 * @param ids    - buffer holding the context
+	 * @param from   - position of the first word of the context
+	 * @param length - number of words in the context
+	 * @return the index of the context
+	 */
+	int intern(int[] ids, int from, int length) {
+		long hash = hash(ids, from, length);
+		int mask = table.length - 1;
+		int slot = (int) hash & mask;
+		for (;; slot = (slot + 1) & mask) {
+			int index = table[slot];
+			if (index == EMPTY) {
+				break;
+			}
+			if (hashes[index] == hash && matches(index, ids, from, length)) {
+				return index;
+			}
+		}
+
+		// Store the new context
+		int index = size;
+		if (index == hashes.length) {
+			growContexts(index * 2);
+		}
+		int start = starts[index];
+		if (start + length > words.length) {
+			words = Arrays.copyOf(words, Math.max(words.length * 2, start + length));
+		}
+		System.arraycopy(ids, from, words, start, length);
+		starts[index + 1] = start + length;
+		hashes[index] = hash;
+		firstFollowers[index] = EMPTY;
+		mostProbable[index] = -1;
+		table[slot] = index;
+		size++;
+		sizes[length - 1]++;
+
+		// Keep the table at most half full so probe sequences stay short
+		if (size * 2 > table.length) {
+			table = rehash(table.length * 2, size, context -> hashes[context]);
+		}
+		return index;
+	}
+
+	/**
+	 * Counts one more occurrence of a word after a context.
+	 *
+	 * @param context - index of the context
+	 * @param wordId  - id of the word that followed it
+	 */
+	void addFollower(int context, int wordId) {
+		long hash = hashFollower(context, wordId);
+		int mask = followerTable.length - 1;
+		int slot = (int) hash & mask;
+		for (;; slot = (slot + 1) & mask) {
+			int follower = followerTable[slot];
+			if (follower == EMPTY) {
+				break;
+			}
+			if (followerContexts[follower] == context && followerWords[follower] == wordId) {
+				followerCounts[follower]++;
+				followersChanged(context);
+				return;
+			}
+		}
+
+		// Store the new follower at the head of its context's chain
+		int follower = followerCount;
+		if (follower == followerWords.length) {
+			int capacity = follower * 2;
+			followerContexts = Arrays.copyOf(followerContexts, capacity);
+			followerWords = Arrays.copyOf(followerWords, capacity);
+			followerCounts = Arrays.copyOf(followerCounts, capacity);
+			nextFollowers = Arrays.copyOf(nextFollowers, capacity);
+		}
+		followerContexts[follower] = context;
+		followerWords[follower] = wordId;
+		followerCounts[follower] = 1;
+		nextFollowers[follower] = firstFollowers[context];
+		firstFollowers[context] = follower;
+		followerTable[slot] = follower;
+		followerCount++;
+		followersChanged(context);
+
+		if (followerCount * 2 > followerTable.length) {
+			followerTable = rehash(followerTable.length * 2, followerCount,
+					f -> hashFollower(followerContexts[f], followerWords[f]));
+		}
+	}
+
+	/**
+	 * Get the word that followed a context most often. Ties are broken by
+	 * choosing the alphabetically smallest word, the same way
+	 * {@link WordEntry#getMostProbableNextWord(Vocabulary)} does.
+	 *
+	 * @param context    - index of the context
+	 * @param vocabulary - vocabulary the word ids belong to
+	 * @return the id of the most probable next word
+	 */
+	int getMostProbableNextWord(int context, Vocabulary vocabulary) {
+		int nextWord = mostProbable[context];
+		if (nextWord != -1) {
+			return nextWord;
+		}
+
+		int maxCount = -1;
+		for (int follower = firstFollowers[context]; follower != EMPTY; follower = nextFollowers[follower]) {
+			int word = followerWords[follower];
+			int count = followerCounts[follower];
+			if (count > maxCount || (count == maxCount
+					&& vocabulary.getWord(word).compareTo(vocabulary.getWord(nextWord)) < 0)) {
+				maxCount = count;
+				nextWord = word;
+			}
+		}
+		mostProbable[context] = nextWord;
+		return nextWord;
+	}
+
+	/**
+	 * Get the ids of all words that followed a context, sorted by count
+	 * (descending) with ties sorted alphabetically (ascending), the same way
+	 * {@link WordEntry#getSortedNextWords(Vocabulary)} does.
+	 *
+	 * @param context    - index of the context
+	 * @param vocabulary - vocabulary the word ids belong to
+	 * @return the sorted word ids
+	 */
+	int[] getSortedNextWords(int context, Vocabulary vocabulary) {
+		int n = countFollowers(context);
+		int[] ids = new int[n];
+		int[] counts = new int[n];
+		copyFollowers(context, ids, counts);
+		WordEntry.mergeSort(ids, counts, new int[n], new int[n], 0, n, vocabulary);
+		return ids;
+	}
+
+	/**
+	 * Picks a random word that followed a context, weighted by how often it did.
+	 *
+	 * @param context - index of the context
+	 * @param random  - source of random numbers
+	 * @return the id of the chosen word
+	 */
+	int getRandomNextWord(int context, RandomGenerator random) {
+		if (samplers == null) {
+			samplers = new AliasSampler[hashes.length];
+		}
+		AliasSampler sampler = samplers[context];
+		if (sampler == null) {
+			int n = countFollowers(context);
+			int[] ids = new int[n];
+			int[] counts = new int[n];
+			copyFollowers(context, ids, counts);
+			sampler = new AliasSampler(ids, counts);
+			samplers[context] = sampler;
+		}
+		return sampler.sample(random);
+	}
+
+	/**
+	 * Drops what was remembered about the followers of a context.
+	 */
+	private void followersChanged(int context) {
+		mostProbable[context] = -1;
+		if (samplers != null) {
+			samplers[context] = null;
+		}
+	}
+
+	private int countFollowers(int context) {
+		int n = 0;
+		for (int follower = firstFollowers[context]; follower != EMPTY; follower = nextFollowers[follower]) {
+			n++;
+		}
+		return n;
+	}
+
+	private void copyFollowers(int context, int[] ids, int[] counts) {
+		int n = 0;
+		for (int follower = firstFollowers[context]; follower != EMPTY; follower = nextFollowers[follower]) {
+			ids[n] = followerWords[follower];
+			counts[n] = followerCounts[follower];
+			n++;
+		}
+	}
+
+	/**
+	 * Grows the per-context arrays to the given number of contexts.
+	 */
+	private void growContexts(int capacity) {
+		starts = Arrays.copyOf(starts, capacity + 1);
+		hashes = Arrays.copyOf(hashes, capacity);
+		firstFollowers = Arrays.copyOf(firstFollowers, capacity);
+		mostProbable = Arrays.copyOf(mostProbable, capacity);
+		if (samplers != null) {
+			samplers = Arrays.copyOf(samplers, capacity);
+		}
+	}
+
+	/**
+	 * Hashes the entries {@code [0, count)} into a new slot table with the given
+	 * capacity.
+	 */
+	private static int[] rehash(int capacity, int count, IntToLongFunction hashOf) {
+		int[] newTable = new int[capacity];
+		Arrays.fill(newTable, EMPTY);
+		int mask = capacity - 1;
+		for (int index = 0; index < count; index++) {
+			int slot = (int) hashOf.applyAsLong(index) & mask;
+			while (newTable[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			newTable[slot] = index;
+		}
+		return newTable;
+	}
+
+	/**
+	 * Compares a stored context against a context in a buffer.
+	 */
+	private boolean matches(int index, int[] ids, int from, int length) {
+		int start = starts[index];
+		if (starts[index + 1] - start != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (words[start + i] != ids[from + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Hashes the ids of a context into 64 bits, mixing the result so the low bits
+	 * used for slots depend on every id.
+	 */
+	private static long hash(int[] ids, int from, int length) {
+		long hash = length;
+		for (int i = from; i < from + length; i++) {
+			hash = (hash + ids[i]) * 0x9E3779B97F4A7C15L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Hashes a (context, word) pair into 64 bits.
+	 */
+	private static long hashFollower(int context, int wordId) {
+		return mix((((long) context << 32) | (wordId & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L);
+	}
+
+	private static long mix(long hash) {
+		hash ^= hash >>> 32;
+		hash *= 0xD6E8FEB86659FD93L;
+		return hash ^ (hash >>> 32);
+	}
+}
@@ -0,0 +1,82 @@
+package comprehensive;
+
+/**
+ * Counts how often keys occur in a fixed amount of memory, however many
+ * distinct keys there are. Every key is counted in one slot of each of a few
+ * rows, picked by a different hash per row, and its estimate is the smallest
+ * of those counts. Keys that share a slot add to each other's counts, so an
+ * estimate is never below the true count and only rarely far above it.
+ *
+ * Counts are raised with the conservative update: a slot is only raised as far
+ * as the new estimate of the key, which keeps the estimates of the other keys
+ * sharing it closer to their true counts.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/17/25
+ */
+class CountMinSketch {
+	private static final int DEPTH = 4;
+	// One odd multiplier per row, so every row hashes a key differently
+	private static final long[] ROW_SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+			0xD6E8FEB86659FD93L };
+
+	private final int[] counts;
+	private final int mask;
+
+	/**
+	 * Creates a sketch with every count at 0.
+	 *
+	 * @param width - number of slots per row, rounded up to a power of two; the
+	 *              sketch takes 16 bytes per slot
+	 */
+	CountMinSketch(int width) {
+		int slots = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+		this.counts = new int[DEPTH * slots];
+		this.mask = slots - 1;
+	}
+
+	/**
+	 * Counts one more occurrence of a key.
+	 *
+	 * @param key - the key
+	 * @return the estimated count of the key, including this occurrence
+	 */
+	int increment(long key) {
+		int estimate = estimate(key) + 1;
+		for (int row = 0; row < DEPTH; row++) {
+			int slot = slot(key, row);
+			if (counts[slot] < estimate) {
+				counts[slot] = estimate;
+			}
+		}
+		return estimate;
+	}
+
+	/**
+	 * Estimates how often a key occurred.
+	 *
+	 * @param key - the key
+	 * @return the estimate, never below the true count
+	 */
+	int estimate(long key) {
+		int estimate = Integer.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			estimate = Math.min(estimate, counts[slot(key, row)]);
+		}
+		return estimate;
+	}
+
+	/**
+	 * Get the memory the counts take.
+	 *
+	 * @return the number of bytes
+	 */
+	long getMemoryBytes() {
+		return 4L * counts.length;
+	}
+
+	private int slot(long key, int row) {
+		long h = (key ^ (key >>> 29)) * ROW_SEEDS[row];
+		return row * (mask + 1) + ((int) (h >>> 32) & mask);
+	}
+}
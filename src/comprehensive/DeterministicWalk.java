@@ -0,0 +1,102 @@
+package comprehensive;
+
+/**
+ * This class records the words "deterministic" mode produces from a seed. Each
+ * word is followed by its most probable adjacent word, or by the seed if it has
+ * no adjacent words, so the walk only depends on the current word. Since there
+ * are finitely many words, the walk must eventually come back to a word it has
+ * already seen and repeat the same cycle forever.
+ *
+ * A walk stores the words up to the first repeated word. Every later position
+ * is found by wrapping around the cycle, so k words can be produced without
+ * walking the library k times.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/3/25
+ */
+public class DeterministicWalk {
+	private final int[] words;
+	private final boolean[] deadEnds;
+	private final int length;
+	private final int cycleStart;
+
+	/**
+	 * Creates a walk from the recorded words.
+	 *
+	 * @param words      - ids of the recorded words
+	 * @param deadEnds   - whether each recorded word has no adjacent words
+	 * @param length     - number of recorded words
+	 * @param cycleStart - position the word after the last recorded one repeats,
+	 *                   or -1 if the walk was cut off before it repeated
+	 */
+	DeterministicWalk(int[] words, boolean[] deadEnds, int length, int cycleStart) {
+		this.words = words;
+		this.deadEnds = deadEnds;
+		this.length = length;
+		this.cycleStart = cycleStart;
+	}
+
+	/**
+	 * Checks whether the position is covered by this walk. A walk that found its
+	 * cycle covers every position.
+	 *
+	 * @param position - position in the generated text, starting at 0 for the seed
+	 * @return true if {@link #wordAt(long)} can answer the position
+	 */
+	public boolean covers(long position) {
+		return cycleStart >= 0 || position < length;
+	}
+
+	/**
+	 * Get the id of the word at a position of the generated text.
+	 *
+	 * @param position - position in the generated text, starting at 0 for the seed
+	 * @return the word id
+	 */
+	public int wordAt(long position) {
+		return words[index(position)];
+	}
+
+	/**
+	 * Checks whether the word at a position has no adjacent words, meaning the
+	 * next word restarts from the seed.
+	 *
+	 * @param position - position in the generated text, starting at 0 for the seed
+	 * @return true if the word is a dead end
+	 */
+	public boolean isDeadEnd(long position) {
+		return deadEnds[index(position)];
+	}
+
+	/**
+	 * Get the number of words recorded before the walk repeats.
+	 *
+	 * @return the number of recorded words
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Get the position of the first word of the cycle.
+	 *
+	 * @return the position, or -1 if the walk was cut off before it repeated
+	 */
+	public int getCycleStart() {
+		return cycleStart;
+	}
+
+	/**
+	 * Translates a position of the generated text into an index of the recorded
+	 * words.
+	 */
+	private int index(long position) {
+		if (position < length) {
+			return (int) position;
+		}
+		if (cycleStart < 0) {
+			throw new IndexOutOfBoundsException("Walk does not cover position " + position);
+		}
+		return (int) (cycleStart + (position - cycleStart) % (length - cycleStart));
+	}
+}
@@ -0,0 +1,496 @@
+package comprehensive;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * An immutable, compact form of a Generator library, made by
+ * {@link Generator#freeze()} once the library is built. The adjacent words of
+ * every word form a row, already in "probable" order, with their frequencies
+ * and alias tables. All words share one char array, and ids are the
+ * alphabetical rank of each word, so looking up a word is a binary search and
+ * alphabetical tie-breaks are plain id comparisons.
+ *
+ * Rows are stored in one of two ways. Most words are followed by only a few
+ * different words, so a row of at most {@link #MAX_COMPRESSED_DEGREE} adjacent
+ * words is compressed into a shared byte array: its length and total, and then
+ * for every adjacent word the drop in frequency from the one before it, the
+ * difference of its id from the one before it (or from the row's own word), and
+ * its alias table column: how far its threshold is below the total, and its
+ * alias word as a difference from its own id. All of them are varints. A row of
+ * one word leaves out the total and the alias table. Reading such a row means
+ * decoding it from the start, which costs little at that length, and sampling
+ * it takes a single pass up to the column drawn. Wider rows, which are few but hold most of the
+ * bigrams of a large text and are walked most often, stay decoded in a
+ * compressed sparse row (CSR) layout: the row of hot row {@code h} is
+ * {@code nextWords[hotOffsets[h] .. hotOffsets[h + 1])}, with its frequencies
+ * and alias tables in parallel arrays.
+ *
+ * A FrozenLibrary never changes after it is built, so any number of threads can
+ * read it without locking.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/17/25
+ */
+public class FrozenLibrary implements WordGraph {
+	/** Widest row that is compressed; wider rows stay decoded. */
+	public static final int MAX_COMPRESSED_DEGREE = 8;
+	// Size of an array header on a 64-bit JVM, counted by getMemoryFootprint
+	private static final int ARRAY_HEADER_BYTES = 16;
+	// Fields of an entry of a compressed row
+	private static final int FREQUENCY = 0;
+	private static final int NEXT_WORD = 1;
+
+	private final char[] chars;
+	private final int[] wordOffsets;
+	private final int[] frequencies;
+	// Start of the compressed row of every word, or ~h if its row is hot row h
+	private final int[] rows;
+	private final byte[] compressedRows;
+	private final int[] hotOffsets;
+	private final int[] hotTotals;
+	private final int[] nextWords;
+	private final int[] nextWordFrequencies;
+	private final int[] thresholds;
+	private final int[] aliases;
+	private final int entryCount;
+	private final int lastWord;
+
+	/**
+	 * Creates a frozen library from its words and its rows in CSR layout,
+	 * compressing the narrow rows and building the alias tables.
+	 *
+	 * @param chars               - all words, alphabetically sorted, one after the other
+	 * @param wordOffsets         - start of every word in chars, plus the total length
+	 * @param frequencies         - frequency of every word
+	 * @param rowOffsets          - start of every word's row, plus the total entry count
+	 * @param nextWords           - adjacent word ids of every row, in "probable" order
+	 * @param nextWordFrequencies - frequency of every adjacent word entry
+	 * @param lastWord            - id of the last word the library was built from, or -1
+	 */
+	FrozenLibrary(char[] chars, int[] wordOffsets, int[] frequencies, int[] rowOffsets, int[] nextWords,
+			int[] nextWordFrequencies, int lastWord) {
+		this.chars = chars;
+		this.wordOffsets = wordOffsets;
+		this.frequencies = frequencies;
+		this.entryCount = nextWords.length;
+		this.lastWord = lastWord;
+
+		int size = frequencies.length;
+		int hotCount = 0;
+		int hotEntryCount = 0;
+		for (int id = 0; id < size; id++) {
+			int degree = rowOffsets[id + 1] - rowOffsets[id];
+			if (degree > MAX_COMPRESSED_DEGREE) {
+				hotCount++;
+				hotEntryCount += degree;
+			}
+		}
+
+		this.rows = new int[size];
+		this.hotOffsets = new int[hotCount + 1];
+		this.hotTotals = new int[hotCount];
+		this.nextWords = new int[hotEntryCount];
+		this.nextWordFrequencies = new int[hotEntryCount];
+		this.thresholds = new int[hotEntryCount];
+		this.aliases = new int[hotEntryCount];
+
+		// Build the alias table of every row up front, so random generation never
+		// has to write to the library. Every empty row shares the one at offset 0.
+		VarintWriter compressed = new VarintWriter();
+		compressed.write(0);
+		int[] rowFrequencies = new int[MAX_COMPRESSED_DEGREE];
+		int[] rowThresholds = new int[MAX_COMPRESSED_DEGREE];
+		int[] rowAliases = new int[MAX_COMPRESSED_DEGREE];
+		int hot = 0;
+		for (int id = 0; id < size; id++) {
+			int start = rowOffsets[id];
+			int degree = rowOffsets[id + 1] - start;
+			if (degree == 0) {
+				continue;
+			}
+
+			if (degree > MAX_COMPRESSED_DEGREE) {
+				int hotStart = hotOffsets[hot];
+				System.arraycopy(nextWords, start, this.nextWords, hotStart, degree);
+				System.arraycopy(nextWordFrequencies, start, this.nextWordFrequencies, hotStart, degree);
+				hotTotals[hot] = AliasSampler.buildTable(this.nextWordFrequencies, hotStart, hotStart + degree,
+						thresholds, aliases);
+				hotOffsets[hot + 1] = hotStart + degree;
+				rows[id] = ~hot;
+				hot++;
+				continue;
+			}
+
+			System.arraycopy(nextWordFrequencies, start, rowFrequencies, 0, degree);
+			int total = AliasSampler.buildTable(rowFrequencies, 0, degree, rowThresholds, rowAliases);
+			rows[id] = compressed.size();
+			compressed.write(degree);
+			// A row of one word always picks it, so its total and alias table are implied
+			boolean single = degree == 1;
+			if (!single) {
+				compressed.write(total);
+			}
+			int previousFrequency = 0;
+			// Ids are differences from the id before, starting from the row's own id
+			int previousWord = id;
+			for (int i = 0; i < degree; i++) {
+				int frequency = nextWordFrequencies[start + i];
+				int nextWord = nextWords[start + i];
+				// Frequencies never rise within a row; the first one is stored as is
+				compressed.write(i == 0 ? frequency : previousFrequency - frequency);
+				compressed.write(zigzag(nextWord - previousWord));
+				if (!single) {
+					// Most columns are full, which makes this 0
+					compressed.write(total - rowThresholds[i]);
+					// The alias word itself, so sampling never has to go back for it
+					compressed.write(zigzag(nextWords[start + rowAliases[i]] - nextWord));
+				}
+				previousFrequency = frequency;
+				previousWord = nextWord;
+			}
+		}
+		this.compressedRows = compressed.toByteArray();
+	}
+
+	/**
+	 * Builds the frozen form of a mutable library.
+	 *
+	 * @param vocabulary - vocabulary of the library
+	 * @param library    - one WordEntry per word id
+	 * @param lastWord   - id of the last word the library was built from, or -1
+	 * @return the frozen library
+	 */
+	static FrozenLibrary of(Vocabulary vocabulary, List<WordEntry> library, int lastWord) {
+		int size = library.size();
+
+		// New ids are the alphabetical ranks of the words
+		String[] sortedWords = new String[size];
+		for (int id = 0; id < size; id++) {
+			sortedWords[id] = vocabulary.getWord(id);
+		}
+		Arrays.sort(sortedWords);
+		int[] newIds = new int[size];
+		int charCount = 0;
+		for (int rank = 0; rank < size; rank++) {
+			newIds[vocabulary.getId(sortedWords[rank])] = rank;
+			charCount += sortedWords[rank].length();
+		}
+
+		char[] chars = new char[charCount];
+		int[] wordOffsets = new int[size + 1];
+		int[] frequencies = new int[size];
+		int[] rowOffsets = new int[size + 1];
+		int entryCount = 0;
+		for (int rank = 0; rank < size; rank++) {
+			String word = sortedWords[rank];
+			word.getChars(0, word.length(), chars, wordOffsets[rank]);
+			wordOffsets[rank + 1] = wordOffsets[rank] + word.length();
+
+			WordEntry entry = library.get(vocabulary.getId(word));
+			frequencies[rank] = entry.getFrequency();
+			rowOffsets[rank] = entryCount;
+			entryCount += entry.getAdjacentWords().size();
+		}
+		rowOffsets[size] = entryCount;
+
+		int[] nextWords = new int[entryCount];
+		int[] nextWordFrequencies = new int[entryCount];
+		for (int rank = 0; rank < size; rank++) {
+			IntCountMap adjacentWords = library.get(vocabulary.getId(sortedWords[rank])).getAdjacentWords();
+
+			// Sort the row by frequency (descending) and then by new id, which is
+			// alphabetical order, by packing both into one long
+			long[] row = new long[adjacentWords.size()];
+			int n = 0;
+			for (int slot = 0; slot < adjacentWords.capacity(); slot++) {
+				if (adjacentWords.keyAt(slot) != IntCountMap.EMPTY) {
+					long descendingFrequency = Integer.MAX_VALUE - adjacentWords.countAt(slot);
+					row[n++] = descendingFrequency << 32 | newIds[adjacentWords.keyAt(slot)];
+				}
+			}
+			Arrays.sort(row);
+
+			for (int i = 0; i < n; i++) {
+				nextWords[rowOffsets[rank] + i] = (int) row[i];
+				nextWordFrequencies[rowOffsets[rank] + i] = Integer.MAX_VALUE - (int) (row[i] >>> 32);
+			}
+		}
+
+		return new FrozenLibrary(chars, wordOffsets, frequencies, rowOffsets, nextWords, nextWordFrequencies,
+				lastWord == -1 ? -1 : newIds[lastWord]);
+	}
+
+	@Override
+	public int size() {
+		return frequencies.length;
+	}
+
+	@Override
+	public String getWord(int id) {
+		return new String(chars, wordOffsets[id], wordOffsets[id + 1] - wordOffsets[id]);
+	}
+
+	@Override
+	public void appendWord(int id, StringBuilder output) {
+		output.append(chars, wordOffsets[id], wordOffsets[id + 1] - wordOffsets[id]);
+	}
+
+	@Override
+	public int getWordLength(int id) {
+		return wordOffsets[id + 1] - wordOffsets[id];
+	}
+
+	@Override
+	public void getWordChars(int id, char[] destination, int offset) {
+		System.arraycopy(chars, wordOffsets[id], destination, offset, wordOffsets[id + 1] - wordOffsets[id]);
+	}
+
+	@Override
+	public int getId(String word) {
+		int low = 0;
+		int high = frequencies.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = compareWord(middle, word);
+			if (compare < 0) {
+				low = middle + 1;
+			} else if (compare > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares the word with the given id to a String, the same way
+	 * {@link String#compareTo(String)} would.
+	 */
+	private int compareWord(int id, String word) {
+		int start = wordOffsets[id];
+		int length = wordOffsets[id + 1] - start;
+		int common = Math.min(length, word.length());
+		for (int i = 0; i < common; i++) {
+			char c = chars[start + i];
+			char other = word.charAt(i);
+			if (c != other) {
+				return c - other;
+			}
+		}
+		return length - word.length();
+	}
+
+	@Override
+	public int getFrequency(int id) {
+		return frequencies[id];
+	}
+
+	@Override
+	public int getNextWordCount(int id) {
+		int row = rows[id];
+		if (row < 0) {
+			return hotOffsets[~row + 1] - hotOffsets[~row];
+		}
+		return (int) readVarint(row);
+	}
+
+	@Override
+	public int getNextWord(int id, int rank) {
+		int row = rows[id];
+		if (row < 0) {
+			return nextWords[hotOffsets[~row] + rank];
+		}
+		return readCompressed(id, row, rank, NEXT_WORD);
+	}
+
+	@Override
+	public int getNextWordFrequency(int id, int rank) {
+		int row = rows[id];
+		if (row < 0) {
+			return nextWordFrequencies[hotOffsets[~row] + rank];
+		}
+		return readCompressed(id, row, rank, FREQUENCY);
+	}
+
+	@Override
+	public int getMostProbableNextWord(int id) {
+		int row = rows[id];
+		if (row < 0) {
+			return nextWords[hotOffsets[~row]];
+		}
+		return (int) readVarint(row) == 0 ? -1 : readCompressed(id, row, 0, NEXT_WORD);
+	}
+
+	@Override
+	public int getRandomNextWord(int id, RandomGenerator random) {
+		int row = rows[id];
+		if (row < 0) {
+			int start = hotOffsets[~row];
+			int column = start + random.nextInt(hotOffsets[~row + 1] - start);
+			int value = random.nextInt(hotTotals[~row]);
+			return nextWords[value < thresholds[column] ? column : start + aliases[column]];
+		}
+
+		// Same draws as a hot row, so both layouts pick the same word
+		long degree = readVarint(row);
+		int position = (int) (degree >>> 32);
+		int column = random.nextInt((int) degree);
+		if ((int) degree == 1) {
+			// The only word fills the whole row, and its frequency is the total
+			long frequency = readVarint(position);
+			random.nextInt((int) frequency);
+			return id + unzigzag((int) readVarint((int) (frequency >>> 32)));
+		}
+		long total = readVarint(position);
+		int value = random.nextInt((int) total);
+
+		// One pass up to the column, which holds both words it can pick
+		position = (int) (total >>> 32);
+		int nextWord = id;
+		for (int i = 0;; i++) {
+			long frequencyDrop = readVarint(position);
+			long wordDelta = readVarint((int) (frequencyDrop >>> 32));
+			nextWord += unzigzag((int) wordDelta);
+			long thresholdGap = readVarint((int) (wordDelta >>> 32));
+			long aliasDelta = readVarint((int) (thresholdGap >>> 32));
+			if (i == column) {
+				int threshold = (int) total - (int) thresholdGap;
+				return value < threshold ? nextWord : nextWord + unzigzag((int) aliasDelta);
+			}
+			position = (int) (aliasDelta >>> 32);
+		}
+	}
+
+	/**
+	 * Decodes a compressed row up to the entry of a rank, and returns one of its
+	 * fields.
+	 *
+	 * @param id    - id of the word the row belongs to
+	 * @param row   - start of the row in compressedRows
+	 * @param rank  - rank of the entry in the row
+	 * @param field - FREQUENCY or NEXT_WORD
+	 */
+	private int readCompressed(int id, int row, int rank, int field) {
+		long degree = readVarint(row);
+		boolean single = (int) degree == 1;
+		int position = (int) (degree >>> 32);
+		if (!single) {
+			// Skip the total
+			position = (int) (readVarint(position) >>> 32);
+		}
+
+		int frequency = 0;
+		int nextWord = id;
+		for (int i = 0;; i++) {
+			long frequencyDrop = readVarint(position);
+			frequency = i == 0 ? (int) frequencyDrop : frequency - (int) frequencyDrop;
+			long wordDelta = readVarint((int) (frequencyDrop >>> 32));
+			nextWord += unzigzag((int) wordDelta);
+			position = (int) (wordDelta >>> 32);
+			if (!single) {
+				// Skip the alias table column
+				position = (int) (readVarint((int) (readVarint(position) >>> 32)) >>> 32);
+			}
+
+			if (i == rank) {
+				return field == FREQUENCY ? frequency : nextWord;
+			}
+		}
+	}
+
+	/**
+	 * Reads the varint at a position of compressedRows: seven bits per byte, low
+	 * bits first, with the top bit set on every byte but the last.
+	 *
+	 * @return the value in the low 32 bits, and the position after the varint in
+	 *         the high 32 bits
+	 */
+	private long readVarint(int position) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = compressedRows[position++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return (long) position << 32 | (value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Maps a signed difference to an unsigned one that is small when the
+	 * difference is close to 0 either way.
+	 */
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Get the id of the last word the library was built from.
+	 *
+	 * @return the id of the last word, or -1 if the library is empty
+	 */
+	public int getLastWord() {
+		return lastWord;
+	}
+
+	/**
+	 * Get the total number of adjacent word entries (distinct bigrams).
+	 *
+	 * @return the number of entries
+	 */
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Estimates the heap memory this library takes: the words, three ints per
+	 * word, the compressed rows, and two ints per hot row and four per entry of a
+	 * hot row, plus the array headers.
+	 *
+	 * @return the estimated number of bytes
+	 */
+	public long getMemoryFootprint() {
+		long arrays = 2L * chars.length + 4L * (wordOffsets.length + frequencies.length + rows.length)
+				+ compressedRows.length + 4L * (hotOffsets.length + hotTotals.length)
+				+ 4L * (nextWords.length + nextWordFrequencies.length + thresholds.length + aliases.length);
+		return arrays + 11 * ARRAY_HEADER_BYTES;
+	}
+
+	/**
+	 * Collects the varints of the compressed rows in a growing byte array.
+	 */
+	private static class VarintWriter {
+		private byte[] bytes = new byte[1 << 10];
+		private int size;
+
+		/**
+		 * Appends a value, which is read back unsigned.
+		 */
+		void write(int value) {
+			if (size + 5 > bytes.length) {
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			}
+			while ((value & ~0x7F) != 0) {
+				bytes[size++] = (byte) (value & 0x7F | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		int size() {
+			return size;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+	}
+}
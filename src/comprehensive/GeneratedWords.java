@@ -0,0 +1,127 @@
+package comprehensive;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.random.RandomGenerator;
+
+/**
+ * Produces the ids of generated words one at a time, only working out a word
+ * when it is asked for. It gives exactly the words
+ * {@link Generator#generateText(String, Integer, String)} puts in its output,
+ * in the same order, but never holds more than two of them, so k can be as
+ * large as the caller wants to read and the first word is ready right away.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/11/25
+ */
+class GeneratedWords implements PrimitiveIterator.OfInt {
+	private final WordGraph graph;
+	private final int seedId;
+	private final int k;
+	private final GenerationMode mode;
+	private final RandomGenerator random;
+
+	// Words worked out but not returned yet; a restart from the seed adds two
+	private final int[] pending = new int[2];
+	private int pendingStart;
+	private int pendingEnd;
+
+	private int currentWord;
+	// Number of loop steps taken, counted the same way generateText counts them
+	private int step;
+	private boolean done;
+	private int restarts;
+
+	/**
+	 * Creates the words generated from a seed.
+	 *
+	 * @param graph  - The library to generate from
+	 * @param seedId - Id of the seed word
+	 * @param k      - Number of words to be generated
+	 * @param mode   - Mode of generation
+	 * @param random - Source of random numbers for "random" mode
+	 */
+	GeneratedWords(WordGraph graph, int seedId, int k, GenerationMode mode, RandomGenerator random) {
+		this.graph = graph;
+		this.seedId = seedId;
+		this.k = k;
+		this.mode = mode;
+		this.random = random;
+		this.currentWord = seedId;
+
+		// "probable" lists the adjacent words of the seed, every other mode starts
+		// with the seed itself
+		if (mode != GenerationMode.PROBABLE) {
+			pending[pendingEnd++] = seedId;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (pendingStart == pendingEnd && !done) {
+			advance();
+		}
+		return pendingStart < pendingEnd;
+	}
+
+	@Override
+	public int nextInt() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return pending[pendingStart++];
+	}
+
+	/**
+	 * Get the number of times the words so far restarted from the seed.
+	 *
+	 * @return the number of restarts
+	 */
+	int getRestartCount() {
+		return restarts;
+	}
+
+	/**
+	 * Works out the next word, or the next two words when the text restarts
+	 * from the seed.
+	 */
+	private void advance() {
+		pendingStart = 0;
+		pendingEnd = 0;
+
+		if (mode == GenerationMode.PROBABLE) {
+			// List the adjacent words of the seed, at most k of them
+			if (step < Math.min(k, graph.getNextWordCount(seedId))) {
+				pending[pendingEnd++] = graph.getNextWord(seedId, step++);
+			} else {
+				done = true;
+			}
+			return;
+		}
+
+		if (step >= k - 1) {
+			done = true;
+			return;
+		}
+
+		// If word has no adjacent words, restart from seed
+		if (graph.getNextWordCount(currentWord) == 0) {
+			pending[pendingEnd++] = seedId;
+			step++;
+			currentWord = seedId;
+			restarts++;
+
+			// If even the seed has no adjacent words, we have to stop
+			if (graph.getNextWordCount(currentWord) == 0) {
+				done = true;
+				return;
+			}
+		}
+
+		int nextWord = mode == GenerationMode.DETERMINISTIC ? graph.getMostProbableNextWord(currentWord)
+				: graph.getRandomNextWord(currentWord, random);
+		pending[pendingEnd++] = nextWord;
+		currentWord = nextWord;
+		step++;
+	}
+}
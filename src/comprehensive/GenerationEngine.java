@@ -0,0 +1,214 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Generates text into a char buffer that is kept and reused from one call to
+ * the next, for callers that generate many texts in a row on one thread. Once
+ * the buffer has grown to the longest text asked for, generating a text does
+ * not allocate at all: the mode is resolved by the caller, the current word is
+ * an int id, words are copied into the buffer as chars (see
+ * {@link WordGraph#getWordChars(int, char[], int)}), and random numbers come
+ * from one SplittableRandom.
+ *
+ * The text is the same as {@link Generator#generateText(String, Integer, String)}
+ * gives, and a seeded engine generates the same "random" text every time.
+ * Unlike Generator, an engine does not report to metrics or JFR.
+ *
+ * An engine is not thread-safe; every thread should have its own, which can
+ * share one frozen library. An engine holds a reference to an off-heap library
+ * until it is closed.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/15/25
+ */
+public class GenerationEngine implements AutoCloseable {
+	private final WordGraph graph;
+	private final RandomGenerator random;
+	private boolean closed;
+	private char[] buffer = new char[1 << 10];
+	private int length;
+
+	/**
+	 * Creates an engine whose random numbers are seeded from the system.
+	 *
+	 * @param graph - the library to generate from
+	 */
+	public GenerationEngine(WordGraph graph) {
+		this(graph, new SplittableRandom());
+	}
+
+	/**
+	 * Creates an engine whose "random" text is the same on every run.
+	 *
+	 * @param graph   - the library to generate from
+	 * @param rngSeed - seed of the random numbers
+	 */
+	public GenerationEngine(WordGraph graph, long rngSeed) {
+		this(graph, new SplittableRandom(rngSeed));
+	}
+
+	/**
+	 * Creates an engine with its own source of random numbers.
+	 *
+	 * @param graph  - the library to generate from
+	 * @param random - source of random numbers, used by this engine only
+	 */
+	public GenerationEngine(WordGraph graph, RandomGenerator random) {
+		// An off-heap library is never freed while an engine is open
+		if (graph instanceof OffHeapLibrary) {
+			((OffHeapLibrary) graph).retain();
+		}
+		this.graph = graph;
+		this.random = random;
+	}
+
+	/**
+	 * Generates text from a seed word into the buffer, replacing the text there.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k    - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @return the number of chars of text in the buffer; the text is an error
+	 *         message if the seed is not in the library
+	 */
+	public int generate(String seed, int k, GenerationMode mode) {
+		String seedLower = seed.toLowerCase();
+		int seedId = graph.getId(seedLower);
+		if (seedId == -1) {
+			String error = Generator.seedNotFound(seedLower);
+			ensureCapacity(error.length());
+			error.getChars(0, error.length(), buffer, 0);
+			length = error.length();
+			return length;
+		}
+		return generate(seedId, k, mode);
+	}
+
+	/**
+	 * Generates text from the id of a seed word into the buffer, replacing the
+	 * text there.
+	 *
+	 * @param seedId - id of the seed word
+	 * @param k      - Number of words to be generated
+	 * @param mode   - Mode of generation
+	 * @return the number of chars of text in the buffer
+	 */
+	public int generate(int seedId, int k, GenerationMode mode) {
+		length = 0;
+
+		// "probable" lists the adjacent words of the seed, at most k of them
+		if (mode == GenerationMode.PROBABLE) {
+			int count = Math.min(k, graph.getNextWordCount(seedId));
+			for (int rank = 0; rank < count; rank++) {
+				if (rank > 0) {
+					append(' ');
+				}
+				appendWord(graph.getNextWord(seedId, rank));
+			}
+			return length;
+		}
+
+		boolean deterministic = mode == GenerationMode.DETERMINISTIC;
+		appendWord(seedId);
+		int currentWord = seedId;
+
+		// Same loop as Generator: a restart from the seed takes two steps
+		for (int step = 0; step < k - 1; step++) {
+			// If word has no adjacent words, restart from seed
+			if (graph.getNextWordCount(currentWord) == 0) {
+				append(' ');
+				appendWord(seedId);
+				step++;
+				currentWord = seedId;
+
+				// If even the seed has no adjacent words, we have to stop
+				if (graph.getNextWordCount(currentWord) == 0) {
+					break;
+				}
+			}
+
+			currentWord = deterministic ? graph.getMostProbableNextWord(currentWord)
+					: graph.getRandomNextWord(currentWord, random);
+			append(' ');
+			appendWord(currentWord);
+		}
+		return length;
+	}
+
+	/**
+	 * Get the buffer holding the last generated text. The buffer belongs to this
+	 * engine and is overwritten by the next call to generate.
+	 *
+	 * @return the buffer; the text is its first {@link #length()} chars
+	 */
+	public char[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Get the number of chars of the last generated text.
+	 *
+	 * @return the length of the text
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Writes the last generated text.
+	 *
+	 * @param out - where the text is written; not flushed
+	 * @throws IOException If there's an error writing the text
+	 */
+	public void writeTo(Writer out) throws IOException {
+		out.write(buffer, 0, length);
+	}
+
+	/**
+	 * Returns the last generated text as a new String.
+	 */
+	@Override
+	public String toString() {
+		return new String(buffer, 0, length);
+	}
+
+	/**
+	 * Releases the reference this engine holds to an off-heap library, which
+	 * frees the library's memory if nobody else holds one. Nothing may be
+	 * generated afterwards. Closing more than once does nothing.
+	 */
+	@Override
+	public void close() {
+		if (graph instanceof OffHeapLibrary && !closed) {
+			closed = true;
+			((OffHeapLibrary) graph).release();
+		}
+	}
+
+	private void appendWord(int id) {
+		int wordLength = graph.getWordLength(id);
+		ensureCapacity(length + wordLength);
+		graph.getWordChars(id, buffer, length);
+		length += wordLength;
+	}
+
+	private void append(char c) {
+		ensureCapacity(length + 1);
+		buffer[length++] = c;
+	}
+
+	/**
+	 * Grows the buffer to hold at least the given number of chars, keeping the
+	 * text already in it.
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package comprehensive;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event committed for every generateText call. Like every JFR event it
+ * costs next to nothing unless a recording has it enabled.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/13/25
+ */
+@Name("comprehensive.Generation")
+@Label("Text Generation")
+@Category("Text Generator")
+@Description("One generateText call")
+class GenerationEvent extends jdk.jfr.Event {
+	@Label("Seed")
+	String seed;
+
+	@Label("Mode")
+	String mode;
+
+	@Label("Words Requested")
+	int k;
+}
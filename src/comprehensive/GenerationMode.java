@@ -0,0 +1,33 @@
+package comprehensive;
+
+/**
+ * The three ways Generator can produce text from a seed. Resolving the mode
+ * once per request saves comparing mode strings for every generated word.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/10/25
+ */
+public enum GenerationMode {
+	/** Picks each next word at random, weighted by how often it follows the current word. */
+	RANDOM,
+	/** Always picks the most probable next word. */
+	DETERMINISTIC,
+	/** Lists the k most probable words that follow the seed. */
+	PROBABLE;
+
+	/**
+	 * Finds the mode with the given name, ignoring case.
+	 *
+	 * @param mode - "random", "deterministic" or "probable"
+	 * @return the matching mode
+	 * @throws IllegalArgumentException if there is no mode with that name
+	 */
+	public static GenerationMode fromString(String mode) {
+		for (GenerationMode value : values()) {
+			if (value.name().equalsIgnoreCase(mode)) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Unknown mode: " + mode);
+	}
+}
@@ -0,0 +1,66 @@
+package comprehensive;
+
+/**
+ * One query of a batch: a seed, a number of words and a mode, the same three
+ * things {@link Generator#generateText(String, Integer, String)} takes.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/12/25
+ */
+public class GenerationRequest {
+	private final String seed;
+	private final int k;
+	private final GenerationMode mode;
+
+	/**
+	 * Creates a request.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 */
+	public GenerationRequest(String seed, int k, GenerationMode mode) {
+		this.seed = seed;
+		this.k = k;
+		this.mode = mode;
+	}
+
+	/**
+	 * Creates a request with the mode given by name.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - "random", "deterministic" or "probable"
+	 * @throws IllegalArgumentException if there is no mode with that name
+	 */
+	public GenerationRequest(String seed, int k, String mode) {
+		this(seed, k, GenerationMode.fromString(mode));
+	}
+
+	/**
+	 * Get the seed word.
+	 *
+	 * @return the seed, as given
+	 */
+	public String getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Get the number of words to generate.
+	 *
+	 * @return k
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Get the mode of generation.
+	 *
+	 * @return the mode
+	 */
+	public GenerationMode getMode() {
+		return mode;
+	}
+}
@@ -0,0 +1,344 @@
+package comprehensive;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Keeps one or more libraries in memory and answers generation queries for as
+ * long as it runs, so a query costs microseconds instead of a JVM start and a
+ * pass over the corpus.
+ *
+ * The protocol is one query per line, answered by one line of text:
+ *
+ * <pre>
+ * [@library] seed k mode
+ * </pre>
+ *
+ * The library is the name it was added under, and the first library is used
+ * when none is named. The answer is what
+ * {@link Generator#generateText(String, Integer, String)} gives, or a line
+ * starting with "Error:" if the query can't be answered. A k above the
+ * server's maximum is refused, so one query can't make a worker build a text
+ * larger than the heap. Queries can be
+ * pipelined: a client may send many before reading any answers, and the answers
+ * come back in the order of the queries. Every connection reads its queries on
+ * one thread and writes the answers on another, while the queries are
+ * generated on a shared pool. At most {@code pipelineDepth} queries of a
+ * connection are in flight; after that the server stops reading from it until
+ * the client reads its answers.
+ *
+ * Queries can come from a local socket (see {@link #start(int)}) or from any
+ * pair of streams, like standard input and output (see
+ * {@link #serve(InputStream, OutputStream)}). A socket server holds at most
+ * {@code maxConnections} connections at once; a client that connects while all
+ * of them are taken gets one error line and is disconnected.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/16/25
+ */
+public class GenerationServer implements AutoCloseable {
+	// Queued after the last query of a connection
+	private static final Future<String> END = CompletableFuture.completedFuture(null);
+	/** Largest k a query may ask for unless the server is given another maximum. */
+	public static final int DEFAULT_MAX_K = 100_000;
+	/** Largest number of open connections unless the server is given another maximum. */
+	public static final int DEFAULT_MAX_CONNECTIONS = 256;
+
+	private final Map<String, ConcurrentGenerator> libraries = new LinkedHashMap<String, ConcurrentGenerator>();
+	private final int pipelineDepth;
+	private final int maxK;
+	private final ExecutorService workers;
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	// One permit per connection that may still be opened
+	private final Semaphore connectionPermits;
+	private volatile ServerSocket serverSocket;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a server with no libraries, which generates on one thread per
+	 * processor, answers a k of at most {@link #DEFAULT_MAX_K} and holds at most
+	 * {@link #DEFAULT_MAX_CONNECTIONS} connections.
+	 *
+	 * @param pipelineDepth - maximum number of queries of one connection that are
+	 *                      read but not answered yet
+	 */
+	public GenerationServer(int pipelineDepth) {
+		this(pipelineDepth, DEFAULT_MAX_K);
+	}
+
+	/**
+	 * Creates a server with no libraries, which generates on one thread per
+	 * processor and holds at most {@link #DEFAULT_MAX_CONNECTIONS} connections.
+	 *
+	 * @param pipelineDepth - maximum number of queries of one connection that are
+	 *                      read but not answered yet
+	 * @param maxK          - largest number of words a query may ask for
+	 */
+	public GenerationServer(int pipelineDepth, int maxK) {
+		this(pipelineDepth, maxK, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Creates a server with no libraries, which generates on one thread per
+	 * processor.
+	 *
+	 * @param pipelineDepth  - maximum number of queries of one connection that
+	 *                       are read but not answered yet
+	 * @param maxK           - largest number of words a query may ask for
+	 * @param maxConnections - largest number of socket connections open at once,
+	 *                       each of which takes two threads
+	 */
+	public GenerationServer(int pipelineDepth, int maxK, int maxConnections) {
+		if (pipelineDepth < 1) {
+			throw new IllegalArgumentException("Pipeline depth must be at least 1: " + pipelineDepth);
+		}
+		if (maxK < 1) {
+			throw new IllegalArgumentException("Maximum k must be at least 1: " + maxK);
+		}
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("Maximum number of connections must be at least 1: " + maxConnections);
+		}
+		this.pipelineDepth = pipelineDepth;
+		this.maxK = maxK;
+		this.connectionPermits = new Semaphore(maxConnections);
+		this.workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+			Thread thread = new Thread(runnable, "generation-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Adds a library that queries can name. Libraries must be added before the
+	 * server starts answering queries.
+	 *
+	 * @param name    - name of the library in queries
+	 * @param library - the library
+	 */
+	public void addLibrary(String name, ConcurrentGenerator library) {
+		libraries.put(name, library);
+	}
+
+	/**
+	 * Answers one query.
+	 *
+	 * @param query - a line of the protocol
+	 * @return the generated text, or an error message
+	 */
+	public String answer(String query) {
+		String[] parts = query.trim().split("\\s+");
+		int first = parts[0].startsWith("@") ? 1 : 0;
+		if (parts.length - first != 3) {
+			return "Error: Expected '[@library] seed k mode' but got '" + query.trim() + "'.";
+		}
+
+		ConcurrentGenerator library = first == 1 ? libraries.get(parts[0].substring(1))
+				: libraries.values().stream().findFirst().orElse(null);
+		if (library == null) {
+			return first == 1 ? "Error: Library '" + parts[0].substring(1) + "' is not loaded."
+					: "Error: No library is loaded.";
+		}
+
+		try {
+			int k = Integer.parseInt(parts[first + 1]);
+			if (k > maxK) {
+				return "Error: k must be at most " + maxK + " but was " + k + ".";
+			}
+			return library.generateText(parts[first], k, GenerationMode.fromString(parts[first + 2]));
+		} catch (IllegalArgumentException e) {
+			// Also thrown by parseInt for a k that is not a number
+			return "Error: " + e.getMessage();
+		}
+	}
+
+	/**
+	 * Answers the queries read from a stream until it ends. Returns once every
+	 * answer has been written.
+	 *
+	 * @param in  - the queries, as UTF-8 lines
+	 * @param out - where the answers are written, as UTF-8 lines
+	 * @throws IOException If there's an error reading the queries
+	 */
+	public void serve(InputStream in, OutputStream out) throws IOException {
+		BlockingQueue<Future<String>> pending = new ArrayBlockingQueue<Future<String>>(pipelineDepth);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		Thread answerWriter = new Thread(() -> writeAnswers(pending, writer), "generation-writer");
+		answerWriter.start();
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank()) {
+					continue;
+				}
+				String query = line;
+				Future<String> answer;
+				try {
+					answer = workers.submit(() -> answer(query));
+				} catch (RejectedExecutionException e) {
+					// The server was closed; the queries already read are still answered
+					break;
+				}
+				// Blocks while the pipeline is full
+				pending.put(answer);
+			}
+			pending.put(END);
+			answerWriter.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while serving queries");
+		} finally {
+			// Stops the writer if reading failed; does nothing once it has finished
+			answerWriter.interrupt();
+		}
+	}
+
+	/**
+	 * Writes the answers in the order of the queries, flushing whenever no more
+	 * answers are waiting. Once the client can't be written to, the remaining
+	 * answers are dropped so the reader never waits on a full pipeline.
+	 */
+	private static void writeAnswers(BlockingQueue<Future<String>> pending, Writer writer) {
+		boolean open = true;
+		try {
+			for (Future<String> answer = pending.take(); answer != END; answer = pending.take()) {
+				String text;
+				try {
+					text = answer.get();
+				} catch (ExecutionException | CancellationException e) {
+					text = "Error: " + e;
+				}
+				if (!open) {
+					continue;
+				}
+
+				try {
+					writer.write(text);
+					writer.write('\n');
+					if (pending.isEmpty()) {
+						writer.flush();
+					}
+				} catch (IOException e) {
+					open = false;
+				}
+			}
+			writer.flush();
+		} catch (InterruptedException | IOException e) {
+			// The connection was dropped
+		}
+	}
+
+	/**
+	 * Starts answering queries on a socket of this machine, on two threads per
+	 * connection. Returns right away; the server runs until it is closed.
+	 *
+	 * @param port - port to listen on, or 0 for any free port
+	 * @return the port the server listens on
+	 * @throws IOException If the socket can't be opened
+	 */
+	public int start(int port) throws IOException {
+		ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		serverSocket = socket;
+		Thread acceptor = new Thread(() -> acceptConnections(socket), "generation-acceptor");
+		acceptor.start();
+		return socket.getLocalPort();
+	}
+
+	private void acceptConnections(ServerSocket socket) {
+		while (!socket.isClosed()) {
+			Socket connection;
+			try {
+				connection = socket.accept();
+			} catch (IOException e) {
+				// Thrown once the server socket is closed
+				continue;
+			}
+			if (!connectionPermits.tryAcquire()) {
+				refuse(connection, "Error: Too many connections.");
+				continue;
+			}
+			connections.add(connection);
+			// close() may have dropped the open connections before this one was added
+			if (closed) {
+				connections.remove(connection);
+				connectionPermits.release();
+				refuse(connection, "Error: The server is closed.");
+				continue;
+			}
+			new Thread(() -> serveConnection(connection), "generation-connection").start();
+		}
+	}
+
+	private void serveConnection(Socket connection) {
+		try (Socket client = connection) {
+			serve(client.getInputStream(), client.getOutputStream());
+		} catch (IOException e) {
+			// The client is gone, or the server was closed
+		} finally {
+			connections.remove(connection);
+			connectionPermits.release();
+		}
+	}
+
+	/**
+	 * Writes one error line to a connection that won't be served and closes it.
+	 */
+	private static void refuse(Socket connection, String message) {
+		try (Socket client = connection) {
+			OutputStream out = client.getOutputStream();
+			out.write((message + "\n").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+		} catch (IOException e) {
+			// The client is gone already
+		}
+	}
+
+	/**
+	 * Stops accepting connections, drops the connections that are open, and stops
+	 * the generation pool. Queries that were read but not generated yet are
+	 * answered with an error.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		if (serverSocket != null) {
+			serverSocket.close();
+		}
+		for (Socket connection : connections) {
+			try {
+				connection.close();
+			} catch (IOException e) {
+				// Already closed
+			}
+		}
+		for (Runnable queued : workers.shutdownNow()) {
+			// Releases the writer waiting for this answer
+			((Future<?>) queued).cancel(false);
+		}
+	}
+}
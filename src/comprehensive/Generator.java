@@ -1,95 +1,748 @@
 package comprehensive;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class breaks down the input file passed into main and creates
- * a hash table out of it. The hash table stores words as keys and WordEntries 
- * as its values (see the documentation of WordEntry for more about this class!). Additionally,
+ * a library out of it. Every distinct word is interned into an integer id by a
+ * Vocabulary, and the library stores one WordEntry per id (see the documentation
+ * of WordEntry for more about this class!). Additionally,
  * this class provides 3 unique modes for generating text based on the probability
- * of a certain word coming after the first.
+ * of a certain word coming after the first. Generation works on word ids and only
+ * turns them back into Strings when the output is built.
  *
  * @author Kent Wilkison and Brady Nelson
- * @version 4/13/25
+ * @version 4/28/25
  */
 
-public class Generator {
-	private HashMap<String, WordEntry> library;
+public class Generator implements AutoCloseable {
+	// Size of the windows a memory-mapped input file is read in
+	private static final int MAP_WINDOW_SIZE = 1 << 28;
+	// Number of chars of generated text collected before they are written out
+	private static final int WRITE_BUFFER_SIZE = 1 << 13;
+	// Slots per row of the sketch of a bounded ingest, which then takes 16 MB
+	private static final int DEFAULT_SKETCH_WIDTH = 1 << 20;
+
+	private Vocabulary vocabulary;
+	private ArrayList<WordEntry> library;
+	// Id of the last word added to the library, or -1 if there is none
+	private int previousWord;
+	// Set by freeze(), after which the mutable library above is dropped
+	private FrozenLibrary frozen;
+	// Set instead of frozen by freezeOffHeap() and loadLibraryOffHeap(); this
+	// Generator holds one reference to it, which it releases when the library is
+	// replaced
+	private OffHeapLibrary offHeap;
+	private final WordGraph entryGraph = new EntryGraph();
+	// Number of words added by addWord, used to measure ingestion
+	private long tokenCount;
+	// Set during a bounded ingest: bigrams are counted here until they are frequent
+	private CountMinSketch sketch;
+	private int promotionThreshold;
+	private GeneratorMetrics metrics = GeneratorMetrics.NONE;
+	// Counts every change to the library, so views built from it can tell when
+	// they are stale
+	private long modifications;
+	// Built on first use, and again once the library has changed
+	private PrefixIndex prefixIndex;
+	private long prefixIndexModifications;
 
 	public Generator() {
-		this.library = new HashMap<String, WordEntry>();
+		this.vocabulary = new Vocabulary();
+		this.library = new ArrayList<WordEntry>();
+		this.previousWord = -1;
+	}
+
+	/**
+	 * Creates a Generator around an existing library.
+	 *
+	 * @param vocabulary - vocabulary of the library
+	 * @param library - one WordEntry per word id
+	 * @param previousWord - id of the last word the library was built from, or -1
+	 */
+	Generator(Vocabulary vocabulary, ArrayList<WordEntry> library, int previousWord) {
+		this.vocabulary = vocabulary;
+		this.library = library;
+		this.previousWord = previousWord;
+	}
+
+	/**
+	 * Creates a Generator around a frozen library.
+	 *
+	 * @param frozen - the frozen library
+	 */
+	Generator(FrozenLibrary frozen) {
+		this.vocabulary = null;
+		this.library = null;
+		this.previousWord = -1;
+		this.frozen = frozen;
 	}
 
 	/**
 	 * This method processes words from a file using two pointers: one pointing to
 	 * the current word (current) and one to the next word (next). Stores the
 	 * processed words in this.library.
-	 * 
-	 * As the file is scanned, the following steps are performed:
-	 * 
+	 *
+	 * The file is read as UTF-8 in large chunks through a FileChannel and split
+	 * into lower-case words by a WordTokenizer, which gives the same words as
+	 * splitting on {@code [^\p{L}\p{N}_']+} without creating a String per word.
+	 * For every word, the following steps are performed:
+	 *
 	 * 1. Inspect the word current points to:
-	 * - If the word is not in the library, create a new
-	 * WordEntry for it.
+	 * - If the word is not in the vocabulary, intern it and create a new
+	 * WordEntry for its id.
 	 * - If it already exists, increment its occurrence count.
-	 * 
+	 *
 	 * 2. Inspect the word next points to:
 	 * - Within AdjacentWords, apply similar logic
 	 * as in step 1.
-	 * 
+	 *
 	 * After processing, the current and next pointers advance to the next pair of
 	 * words in the list.
-	 * 
+	 *
 	 * @param filePath Path to the text file to process
 	 * @throws IOException If there's an error reading the file
 	 */
 	public void createLibraryFromFile(String filePath) throws IOException {
+		IngestEvent event = new IngestEvent();
+		event.begin();
+		long start = System.nanoTime();
+		long tokensBefore = tokenCount;
+
 		// Clear any existing library data
-		library.clear();
-
-		// Create the delimiter pattern to properly split the text
-		Pattern delim = Pattern.compile("[^\\p{L}\\p{N}_']+");
-		
-		try (Scanner scanner = new Scanner(new File(filePath))) {
-			// Apply the delimiter pattern
-			scanner.useDelimiter(delim);
-
-			// Initialize previousWord pointer
-			String previousWord = null;
-			
-			// Process one word at a time
-			while (scanner.hasNext()) {
-				String word = scanner.next().trim();
-
-				// Skip empty strings
-				if (word.isEmpty()) {
-					continue;
-				}
+		clearLibrary();
+
+		try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			long bytes = addWordsFromChannel(channel);
+			ingestCompleted(event, start, filePath, bytes, tokenCount - tokensBefore);
+		}
+	}
+
+	/**
+	 * Builds the library the same way as {@link #createLibraryFromFile(String)},
+	 * but in bounded memory for text with a long tail of rare words. See
+	 * {@link #createLibraryFromFileBounded(String, int, int)}; the sketch takes
+	 * 16 MB.
+	 *
+	 * @param filePath Path to the text file to process
+	 * @param promotionThreshold - Number of times a bigram must occur to be kept
+	 * @throws IOException If there's an error reading the file
+	 */
+	public void createLibraryFromFileBounded(String filePath, int promotionThreshold) throws IOException {
+		createLibraryFromFileBounded(filePath, promotionThreshold, DEFAULT_SKETCH_WIDTH);
+	}
+
+	/**
+	 * Builds the library from a text file while keeping only the frequent
+	 * bigrams. Words are counted exactly, but a bigram is first counted in a
+	 * count-min sketch of fixed size (see CountMinSketch), and only becomes an
+	 * adjacent word once the sketch estimates it occurred promotionThreshold
+	 * times. It starts with that estimate and is counted exactly from then on.
+	 * Bigrams that occur once or twice, the bulk of a long-tailed text, never
+	 * take memory in the library.
+	 *
+	 * The estimate can be too high when bigrams share sketch slots, so a rare
+	 * bigram is sometimes kept, and the count of a kept bigram can be slightly
+	 * too high. A wider sketch makes both less likely.
+	 *
+	 * @param filePath Path to the text file to process
+	 * @param promotionThreshold - Number of times a bigram must occur to be kept;
+	 *                           1 keeps every bigram, exactly
+	 * @param sketchWidth - Slots per row of the sketch, which takes 16 bytes per slot
+	 * @throws IOException If there's an error reading the file
+	 */
+	public void createLibraryFromFileBounded(String filePath, int promotionThreshold, int sketchWidth)
+			throws IOException {
+		if (promotionThreshold < 1) {
+			throw new IllegalArgumentException("Promotion threshold must be at least 1: " + promotionThreshold);
+		}
+		if (promotionThreshold == 1) {
+			createLibraryFromFile(filePath);
+			return;
+		}
+
+		sketch = new CountMinSketch(sketchWidth);
+		this.promotionThreshold = promotionThreshold;
+		try {
+			createLibraryFromFile(filePath);
+		} finally {
+			sketch = null;
+		}
+	}
+
+	/**
+	 * Removes every bigram that occurred fewer than minCount times, so the
+	 * library keeps only its frequent transitions. Words are kept, even if none
+	 * of their adjacent words are left. A frozen library is rebuilt, on or off
+	 * the heap as it was.
+	 *
+	 * @param minCount - smallest bigram count that is kept
+	 * @return the number of bigrams removed
+	 */
+	public int pruneTransitions(int minCount) {
+		boolean wasFrozen = isFrozen();
+		boolean wasOffHeap = isOffHeap();
+		if (wasFrozen) {
+			thaw();
+		}
+
+		int removed = 0;
+		for (WordEntry entry : library) {
+			removed += entry.removeAdjacentWordsBelow(minCount);
+		}
+
+		if (wasOffHeap) {
+			freezeOffHeap();
+		} else if (wasFrozen) {
+			freeze();
+		}
+		return removed;
+	}
+
+	/**
+	 * Adds the words of another text file to the existing library instead of
+	 * replacing it, as if the new text came right after the text the library
+	 * was built from. The bigram formed by the last word of the library and the
+	 * first word of the new text is counted, so appending several files gives
+	 * the same library as building it from all of them at once.
+	 *
+	 * Only the WordEntries of words that occur in the new text are changed, and
+	 * only those drop their samplers and cached adjacent word orders; every
+	 * other word keeps its caches. A frozen library (see {@link #freeze()}) is
+	 * turned back into a mutable one first.
+	 *
+	 * @param filePath Path to the text file to add
+	 * @throws IOException If there's an error reading the file
+	 */
+	public void appendFromFile(String filePath) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			appendFromChannel(channel, filePath);
+		}
+	}
+
+	/**
+	 * Adds the words read from a stream to the existing library. See
+	 * {@link #appendFromFile(String)}. The stream is read to its end but not
+	 * closed.
+	 *
+	 * @param input Stream of UTF-8 text to add
+	 * @throws IOException If there's an error reading the stream
+	 */
+	public void appendFromStream(InputStream input) throws IOException {
+		appendFromChannel(Channels.newChannel(input), "stream");
+	}
+
+	/**
+	 * Adds the words read from a channel to the existing library, thawing a
+	 * frozen library first.
+	 */
+	private void appendFromChannel(ReadableByteChannel channel, String source) throws IOException {
+		IngestEvent event = new IngestEvent();
+		event.begin();
+		long start = System.nanoTime();
+		long tokensBefore = tokenCount;
+
+		if (isFrozen()) {
+			thaw();
+		}
+		long bytes = addWordsFromChannel(channel);
+		ingestCompleted(event, start, source, bytes, tokenCount - tokensBefore);
+	}
+
+	/**
+	 * Reads a channel to its end and adds its words to the library.
+	 *
+	 * @param channel - channel of UTF-8 text
+	 * @return the number of bytes read
+	 * @throws IOException If there's an error reading the channel
+	 */
+	private long addWordsFromChannel(ReadableByteChannel channel) throws IOException {
+		return new WordTokenizer().feedAll(channel, this::addWord);
+	}
+
+	/**
+	 * Reports a finished ingest to the metrics and commits its JFR event.
+	 *
+	 * @param event  - event begun when the ingest started
+	 * @param start  - System.nanoTime() when the ingest started
+	 * @param source - file name or other description of the text
+	 * @param bytes  - number of bytes read
+	 * @param tokens - number of words read
+	 */
+	private void ingestCompleted(IngestEvent event, long start, String source, long bytes, long tokens) {
+		if (metrics != GeneratorMetrics.NONE) {
+			metrics.ingestCompleted(bytes, tokens, System.nanoTime() - start, getGraph());
+		}
+		if (event.shouldCommit()) {
+			event.source = source;
+			event.bytes = bytes;
+			event.tokens = tokens;
+			event.vocabularySize = getGraph().size();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Builds the library the same way as {@link #createLibraryFromFile(String)},
+	 * but memory-maps the file instead of copying it through a heap buffer. This
+	 * is meant for corpora that are larger than the heap: only a window of the
+	 * file is mapped at a time, so the memory used for reading stays constant no
+	 * matter how big the file is.
+	 *
+	 * @param filePath Path to the text file to process
+	 * @throws IOException If there's an error reading the file
+	 */
+	public void createLibraryFromMappedFile(String filePath) throws IOException {
+		createLibraryFromMappedFile(filePath, MAP_WINDOW_SIZE);
+	}
+
+	/**
+	 * Builds the library from a memory-mapped file, mapping {@code windowSize}
+	 * bytes at a time. Words and UTF-8 characters that cross the end of a window
+	 * are continued in the next one.
+	 *
+	 * @param filePath   Path to the text file to process
+	 * @param windowSize Number of bytes to map at a time
+	 * @throws IOException If there's an error reading the file
+	 */
+	public void createLibraryFromMappedFile(String filePath, int windowSize) throws IOException {
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+		}
+
+		IngestEvent event = new IngestEvent();
+		event.begin();
+		long start = System.nanoTime();
+		long tokensBefore = tokenCount;
+
+		// Clear any existing library data
+		clearLibrary();
+
+		try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			addWordsFromRange(channel, 0, channel.size(), windowSize);
+			ingestCompleted(event, start, filePath, channel.size(), tokenCount - tokensBefore);
+		}
+	}
+
+	/**
+	 * Builds the library from a file using several threads. The file is split into
+	 * byte ranges that start and end between words, each range is turned into a
+	 * partial library on the common fork-join pool, and the partial libraries are
+	 * merged back together in file order. The result is the same library that
+	 * {@link #createLibraryFromFile(String)} builds.
+	 *
+	 * @param filePath Path to the text file to process
+	 * @throws IOException If there's an error reading the file
+	 */
+	public void createLibraryFromFileParallel(String filePath) throws IOException {
+		createLibraryFromFileParallel(filePath, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Builds the library from a file using the threads of the given pool. See
+	 * {@link #createLibraryFromFileParallel(String)}.
+	 *
+	 * @param filePath Path to the text file to process
+	 * @param pool     Pool that builds and merges the partial libraries
+	 * @throws IOException If there's an error reading the file
+	 */
+	public void createLibraryFromFileParallel(String filePath, ForkJoinPool pool) throws IOException {
+		IngestEvent event = new IngestEvent();
+		event.begin();
+		long start = System.nanoTime();
+
+		Generator built = ShardedLibraryBuilder.build(Paths.get(filePath), pool);
+		takeLibraryFrom(built);
+		ingestCompleted(event, start, filePath, Files.size(Paths.get(filePath)), built.tokenCount);
+	}
+
+	/**
+	 * Builds the library from a file in a pipeline of stages that run at the same
+	 * time: one thread reads the file, several split it into words, one gives the
+	 * words their ids in file order, and several count the bigrams (see
+	 * IngestPipeline). The result is the same library that
+	 * {@link #createLibraryFromFile(String)} builds. Uses half of the processors
+	 * to tokenize and a quarter of them to count.
+	 *
+	 * @param filePath Path to the text file to process
+	 * @return what every stage did, in pipeline order
+	 * @throws IOException If there's an error reading the file
+	 */
+	public List<PipelineStageStats> createLibraryFromFilePipelined(String filePath) throws IOException {
+		int processors = Runtime.getRuntime().availableProcessors();
+		return createLibraryFromFilePipelined(filePath, Math.max(1, processors / 2), Math.max(1, processors / 4));
+	}
+
+	/**
+	 * Builds the library from a file in a pipeline of stages with the given
+	 * number of threads. See {@link #createLibraryFromFilePipelined(String)}.
+	 *
+	 * @param filePath         Path to the text file to process
+	 * @param tokenizerThreads Number of threads that split the text into words
+	 * @param counterThreads   Number of threads that count bigrams
+	 * @return what every stage did, in pipeline order
+	 * @throws IOException If there's an error reading the file
+	 */
+	public List<PipelineStageStats> createLibraryFromFilePipelined(String filePath, int tokenizerThreads,
+			int counterThreads) throws IOException {
+		IngestEvent event = new IngestEvent();
+		event.begin();
+		long start = System.nanoTime();
+
+		IngestPipeline pipeline = new IngestPipeline(Paths.get(filePath), tokenizerThreads, counterThreads);
+		Generator built = pipeline.build();
+		built.tokenCount = pipeline.getTokenCount();
+		takeLibraryFrom(built);
+		ingestCompleted(event, start, filePath, pipeline.getBytes(), built.tokenCount);
+		return pipeline.getStats();
+	}
+
+	/**
+	 * Saves the library to a binary snapshot file, which {@link #loadLibrary(String)}
+	 * can read back much faster than the text can be processed again. The file
+	 * holds a table of all words followed by the adjacent words of every word in
+	 * compressed sparse rows (see LibrarySnapshot for the exact layout).
+	 *
+	 * @param filePath Path of the snapshot file to write
+	 * @throws IOException If there's an error writing the file
+	 */
+	public void saveLibrary(String filePath) throws IOException {
+		if (offHeap != null) {
+			LibrarySnapshot.write(Paths.get(filePath), offHeap, offHeap.getLastWord());
+			return;
+		}
+		FrozenLibrary snapshot = frozen != null ? frozen : FrozenLibrary.of(vocabulary, library, previousWord);
+		LibrarySnapshot.write(Paths.get(filePath), snapshot, snapshot.getLastWord());
+	}
+
+	/**
+	 * Replaces the library with one saved by {@link #saveLibrary(String)}. The
+	 * loaded library is frozen (see {@link #freeze()}).
+	 *
+	 * @param filePath Path of the snapshot file to read
+	 * @throws IOException If the file can't be read or is not a snapshot
+	 */
+	public void loadLibrary(String filePath) throws IOException {
+		IngestEvent event = new IngestEvent();
+		event.begin();
+		long start = System.nanoTime();
+
+		takeLibraryFrom(LibrarySnapshot.read(Paths.get(filePath)));
+		libraryLoaded(event, start, filePath);
+	}
+
+	/**
+	 * Replaces the library with one saved by {@link #saveLibrary(String)}, mapped
+	 * off the heap (see OffHeapLibrary). Only the words are copied out of the
+	 * file; the adjacent words are read from the mapped file in place. The
+	 * library stays mapped until it is replaced.
+	 *
+	 * @param filePath Path of the snapshot file to map
+	 * @throws IOException If the file can't be read or is not a snapshot
+	 */
+	public void loadLibraryOffHeap(String filePath) throws IOException {
+		IngestEvent event = new IngestEvent();
+		event.begin();
+		long start = System.nanoTime();
+
+		OffHeapLibrary loaded = OffHeapLibrary.map(Paths.get(filePath));
+		clearLibrary();
+		vocabulary = null;
+		library = null;
+		offHeap = loaded;
+		libraryLoaded(event, start, filePath);
+	}
+
+	/**
+	 * Reports a loaded snapshot to the metrics and to JFR.
+	 */
+	private void libraryLoaded(IngestEvent event, long start, String filePath) throws IOException {
+		long bytes = Files.size(Paths.get(filePath));
+		if (metrics != GeneratorMetrics.NONE) {
+			metrics.libraryLoaded(bytes, System.nanoTime() - start, getGraph());
+		}
+		if (event.shouldCommit()) {
+			event.source = filePath;
+			event.bytes = bytes;
+			event.vocabularySize = getGraph().size();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Replaces this library with the library of another Generator.
+	 */
+	private void takeLibraryFrom(Generator other) {
+		closeOffHeap();
+		this.vocabulary = other.vocabulary;
+		this.library = other.library;
+		this.previousWord = other.previousWord;
+		this.frozen = other.frozen;
+		this.offHeap = other.offHeap;
+		this.tokenCount += other.tokenCount;
+		modifications++;
+		prefixIndex = null;
+	}
+
+	/**
+	 * Turns the library into its compact, immutable form (see FrozenLibrary) and
+	 * drops the WordEntries. Generation afterwards reads only the frozen library,
+	 * which takes several times less memory, keeps the adjacent words of a word
+	 * next to each other, and can be shared by any number of threads. Building a
+	 * new library replaces the frozen one, and appending words to it (see
+	 * {@link #appendFromFile(String)}) turns it back into a mutable library.
+	 */
+	public void freeze() {
+		if (isFrozen()) {
+			return;
+		}
+		frozen = FrozenLibrary.of(vocabulary, library, previousWord);
+		vocabulary = null;
+		library = null;
+		previousWord = -1;
+	}
+
+	/**
+	 * Freezes the library (see {@link #freeze()}) and moves it off the heap (see
+	 * OffHeapLibrary), so the garbage collector no longer has to scan it. The
+	 * memory is freed as soon as the library is replaced, instead of whenever
+	 * the garbage collector gets to it.
+	 */
+	public void freezeOffHeap() {
+		freeze();
+		if (offHeap != null) {
+			return;
+		}
+		offHeap = OffHeapLibrary.of(frozen);
+		frozen = null;
+	}
+
+	/**
+	 * Rebuilds the Vocabulary and WordEntries from the frozen library, so words
+	 * can be added to it again. Word ids stay the same, and the last word of the
+	 * frozen library becomes the previous word of the next one added.
+	 */
+	private void thaw() {
+		WordGraph thawing = getGraph();
+		int lastWord = offHeap != null ? offHeap.getLastWord() : frozen.getLastWord();
+		vocabulary = new Vocabulary();
+		library = new ArrayList<WordEntry>(thawing.size());
+		for (int id = 0; id < thawing.size(); id++) {
+			vocabulary.intern(thawing.getWord(id));
+			WordEntry entry = new WordEntry(id, vocabulary.getWord(id));
+			entry.addOccurrences(thawing.getFrequency(id));
+			for (int rank = 0; rank < thawing.getNextWordCount(id); rank++) {
+				entry.addAdjacentWord(thawing.getNextWord(id, rank), thawing.getNextWordFrequency(id, rank));
+			}
+			library.add(entry);
+		}
+		previousWord = lastWord;
+		frozen = null;
+		closeOffHeap();
+		modifications++;
+		prefixIndex = null;
+	}
+
+	/**
+	 * Checks whether {@link #freeze()} was called on the current library.
+	 *
+	 * @return true if the library is frozen
+	 */
+	public boolean isFrozen() {
+		return frozen != null || offHeap != null;
+	}
+
+	/**
+	 * Checks whether the library is kept off the heap, by
+	 * {@link #freezeOffHeap()} or {@link #loadLibraryOffHeap(String)}.
+	 *
+	 * @return true if the library is off the heap
+	 */
+	public boolean isOffHeap() {
+		return offHeap != null;
+	}
+
+	/**
+	 * Drops the library and releases the off-heap library this Generator holds,
+	 * which frees its memory right away unless an open ConcurrentGenerator, an
+	 * open GenerationEngine or someone else retained it. The Generator is left
+	 * with an empty library, and can build or load a new one.
+	 */
+	@Override
+	public void close() {
+		clearLibrary();
+	}
+
+	/**
+	 * Releases the reference this Generator holds to its off-heap library.
+	 */
+	private void closeOffHeap() {
+		if (offHeap != null) {
+			offHeap.close();
+			offHeap = null;
+		}
+	}
+
+	/**
+	 * Adds the words found in a byte range of a file to the library, mapping
+	 * {@code windowSize} bytes at a time. Words and UTF-8 characters that cross
+	 * the end of a window are continued in the next one.
+	 *
+	 * @param channel    - channel of the file to read
+	 * @param start      - offset of the first byte of the range
+	 * @param end        - offset just past the last byte of the range
+	 * @param windowSize - number of bytes to map at a time
+	 * @throws IOException If there's an error reading the file
+	 */
+	void addWordsFromRange(FileChannel channel, long start, long end, int windowSize) throws IOException {
+		WordTokenizer tokenizer = new WordTokenizer();
+
+		// Map and process one window at a time. A window is unmapped once it is
+		// no longer referenced, so at most a few windows are mapped at once
+		for (long offset = start; offset < end; offset += windowSize) {
+			long size = Math.min(windowSize, end - offset);
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+			tokenizer.feed(window, this::addWord);
+		}
+		tokenizer.finish(this::addWord);
+	}
+
+	/**
+	 * Appends the library of another Generator to this one, as if the text the
+	 * other library was built from came right after the text of this one. Word
+	 * counts and adjacent word counts are added up, and the bigram formed by the
+	 * last word of this library and the first word of the other one is counted.
+	 *
+	 * @param other - library built from the text that follows this one
+	 */
+	void appendLibrary(Generator other) {
+		if (other.library.isEmpty()) {
+			return;
+		}
 
-				// Convert to lower-case for consistency
-				word = word.toLowerCase();
+		// Translate the other library's ids into ids of this library
+		int[] idMap = new int[other.vocabulary.size()];
+		for (int otherId = 0; otherId < idMap.length; otherId++) {
+			idMap[otherId] = vocabulary.intern(other.vocabulary.getWord(otherId));
+			getOrCreateEntry(idMap[otherId]);
+		}
 
-				// Add or update this word in our library
-				WordEntry entry = library.computeIfAbsent(word, w -> new WordEntry(w));
-				entry.incrementOccurrence();
+		for (WordEntry otherEntry : other.library) {
+			WordEntry entry = library.get(idMap[otherEntry.getId()]);
+			entry.addOccurrences(otherEntry.getFrequency());
 
-				// If we have a previous word, update its adjacent words
-				if (previousWord != null) {
-					WordEntry prevEntry = library.get(previousWord);
-					prevEntry.addAdjacentWord(word);
+			IntCountMap adjacentWords = otherEntry.getAdjacentWords();
+			for (int slot = 0; slot < adjacentWords.capacity(); slot++) {
+				int adjacentId = adjacentWords.keyAt(slot);
+				if (adjacentId != IntCountMap.EMPTY) {
+					entry.addAdjacentWord(idMap[adjacentId], adjacentWords.countAt(slot));
 				}
+			}
+		}
+
+		tokenCount += other.tokenCount;
+		modifications++;
+
+		// The first word of the other text always has id 0, since ids are handed
+		// out in order of appearance
+		if (previousWord != -1) {
+			library.get(previousWord).addAdjacentWord(idMap[0]);
+		}
+		previousWord = idMap[other.previousWord];
+	}
+
+	/**
+	 * Removes all words from the library.
+	 */
+	private void clearLibrary() {
+		vocabulary = new Vocabulary();
+		library = new ArrayList<WordEntry>();
+		previousWord = -1;
+		frozen = null;
+		closeOffHeap();
+		modifications++;
+		prefixIndex = null;
+	}
+
+	/**
+	 * Adds one word of the input to the library.
+	 *
+	 * @param chars  - buffer holding the lower-case word
+	 * @param length - number of chars of the word
+	 */
+	private void addWord(char[] chars, int length) {
+		int wordId = vocabulary.intern(chars, length);
+		tokenCount++;
+		modifications++;
+
+		// Add or update this word in our library
+		WordEntry entry = getOrCreateEntry(wordId);
+		entry.incrementOccurrence();
 
-				// Current word becomes the previous word for the next iteration
-				previousWord = word;
+		// If we have a previous word, update its adjacent words
+		if (previousWord != -1) {
+			if (sketch == null) {
+				library.get(previousWord).addAdjacentWord(wordId);
+			} else {
+				addBoundedAdjacentWord(library.get(previousWord), wordId);
 			}
 		}
+
+		// Current word becomes the previous word for the next word
+		previousWord = wordId;
+	}
+
+	/**
+	 * Counts a bigram during a bounded ingest: exactly once it is an adjacent
+	 * word, and in the sketch until it occurred often enough to become one.
+	 */
+	private void addBoundedAdjacentWord(WordEntry previous, int wordId) {
+		if (previous.getAdjacentWords().get(wordId) > 0) {
+			previous.addAdjacentWord(wordId);
+			return;
+		}
+
+		int estimate = sketch.increment((long) previous.getId() << 32 | wordId);
+		if (estimate >= promotionThreshold) {
+			previous.addAdjacentWord(wordId, estimate);
+		}
+	}
+
+	/**
+	 * Returns the WordEntry for a word id, creating it if the id was just interned.
+	 * Ids are handed out in order, so a new id is always the next index of the
+	 * library.
+	 */
+	private WordEntry getOrCreateEntry(int wordId) {
+		if (wordId == library.size()) {
+			library.add(new WordEntry(wordId, vocabulary.getWord(wordId)));
+		}
+		return library.get(wordId);
 	}
 
 	/**
@@ -98,152 +751,788 @@ public class Generator {
 	 * @param seed - The seed/starting word to generate from
 	 * @param k - Number of words to be generated
 	 * @param mode - Mode of generation: "random" randomly chooses
-	 * a word based on its probability (for example, a word that occurs 50% of the time 
+	 * a word based on its probability (for example, a word that occurs 50% of the time
 	 * has a higher chance of being chosen than a word that occurs 25% of the time), "probable" returns
 	 * a list of the k most probable elements in sorted order. "deterministic" generates the most probable
 	 * word after each previous word.
-	 * 
+	 *
 	 * @return
 	 */
 	public String generateText(String seed, Integer k, String mode) {
+		return generateText(getGraph(), seed, k, GenerationMode.fromString(mode), ThreadLocalRandom.current(),
+				metrics);
+	}
+
+	/**
+	 * Generates text from a seed that may be only the start of a word. A seed
+	 * that is a word of the library is used as it is; otherwise the text starts
+	 * from the most frequent word that starts with the seed (see PrefixIndex).
+	 *
+	 * @param prefix - The seed word, or the start of one
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation, as in {@link #generateText(String, Integer, String)}
+	 * @return the generated text, or an error message if no word starts with the seed
+	 */
+	public String generateFromPrefix(String prefix, Integer k, String mode) {
+		String prefixLower = prefix.toLowerCase();
+		WordGraph graph = getGraph();
+		if (graph.getId(prefixLower) != -1) {
+			return generateText(prefixLower, k, mode);
+		}
+
+		int seedId = getPrefixIndex().getMostFrequentCompletion(prefixLower);
+		if (seedId == -1) {
+			// An unknown mode is reported before a missing seed, as generateText does
+			GenerationMode.fromString(mode);
+			return "Error: No word starting with '" + prefixLower + "' found in the input text.";
+		}
+		return generateText(graph.getWord(seedId), k, mode);
+	}
+
+	/**
+	 * Lists the most frequent words that start with a prefix, by frequency
+	 * (descending) with ties broken alphabetically (ascending).
+	 *
+	 * @param prefix - The start of a word
+	 * @param n - Maximum number of words to list
+	 * @return the words, at most n of them
+	 */
+	public List<String> getCompletions(String prefix, int n) {
+		WordGraph graph = getGraph();
+		int[] ids = getPrefixIndex().getTopCompletions(prefix.toLowerCase(), n);
+		String[] completions = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			completions[i] = graph.getWord(ids[i]);
+		}
+		return List.of(completions);
+	}
+
+	/**
+	 * Creates a GenerationEngine for the current library, for generating many
+	 * texts in a row on one thread without allocating. Freeze the library first
+	 * if the engine should outlive changes to it; an off-heap library stays open
+	 * until the engine is closed.
+	 *
+	 * @return the engine
+	 */
+	public GenerationEngine createEngine() {
+		return new GenerationEngine(getGraph());
+	}
+
+	/**
+	 * Get the prefix index of the current library, building it if the library
+	 * has changed since it was last built.
+	 *
+	 * @return the index
+	 */
+	PrefixIndex getPrefixIndex() {
+		WordGraph graph = getGraph();
+		if (prefixIndex == null || prefixIndex.getGraph() != graph || prefixIndexModifications != modifications) {
+			// Only the WordEntries are numbered in order of appearance
+			prefixIndex = new PrefixIndex(graph, graph != entryGraph);
+			prefixIndexModifications = modifications;
+		}
+		return prefixIndex;
+	}
+
+	/**
+	 * Generates text from a library. This is the same as
+	 * {@link #generateText(String, Integer, String)}, with the library, the mode
+	 * and the source of random numbers given explicitly. It never writes to the
+	 * library, so threads can share a frozen library.
+	 *
+	 * @param graph - The library to generate from
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @param random - Source of random numbers for "random" mode
+	 * @return the generated text, or an error message if the seed is not in the library
+	 */
+	static String generateText(WordGraph graph, String seed, int k, GenerationMode mode, RandomGenerator random) {
+		return generateText(graph, seed, k, mode, random, GeneratorMetrics.NONE);
+	}
+
+	/**
+	 * Generates text from a library and reports it to the given metrics and to
+	 * JFR.
+	 *
+	 * @param graph - The library to generate from
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @param random - Source of random numbers for "random" mode
+	 * @param metrics - Receives the latency and the restarts from the seed
+	 * @return the generated text, or an error message if the seed is not in the library
+	 */
+	static String generateText(WordGraph graph, String seed, int k, GenerationMode mode, RandomGenerator random,
+			GeneratorMetrics metrics) {
+		GenerationEvent event = new GenerationEvent();
+		event.begin();
+		long start = metrics == GeneratorMetrics.NONE ? 0 : System.nanoTime();
+
 		// Convert seed to lower-case to match our library keys
 	    String seedLower = seed.toLowerCase();
-	    String currentWord = seedLower;
-	    
+	    int seedId = graph.getId(seedLower);
+
 	    // Check if seed exists in library
-	    if (!library.containsKey(currentWord)) {
-	        return "Error: Seed word '" + currentWord + "' not found in the input text.";
-	    }
-	    
-		// If mode is "probable", call separate method (logic is different)
-	    if (mode.equalsIgnoreCase("probable")) {
-	        return getProbableWordsList(seedLower, k);
+	    String text = seedId == -1 ? seedNotFound(seedLower) : generateText(graph, seedId, k, mode, random, metrics);
+
+	    generationCompleted(event, metrics, start, seedLower, k, mode);
+	    return text;
+	}
+
+	/**
+	 * Reports finished generation to the metrics and commits its JFR event.
+	 *
+	 * @param event - event begun when generation started
+	 * @param metrics - metrics to report to
+	 * @param start - System.nanoTime() when generation started, if metrics are on
+	 * @param seedLower - the lower-case seed
+	 * @param k - Number of words asked for
+	 * @param mode - Mode of generation
+	 */
+	private static void generationCompleted(GenerationEvent event, GeneratorMetrics metrics, long start,
+			String seedLower, int k, GenerationMode mode) {
+		if (metrics != GeneratorMetrics.NONE) {
+			metrics.generationCompleted(mode, k, System.nanoTime() - start);
+		}
+		if (event.shouldCommit()) {
+			event.seed = seedLower;
+			event.mode = mode.name().toLowerCase();
+			event.k = k;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Generates text from a seed that has already been looked up.
+	 *
+	 * @param graph - The library to generate from
+	 * @param seedId - Id of the seed word
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @param random - Source of random numbers for "random" mode
+	 * @return the generated text
+	 */
+	static String generateText(WordGraph graph, int seedId, int k, GenerationMode mode, RandomGenerator random) {
+		return generateText(graph, seedId, k, mode, random, GeneratorMetrics.NONE);
+	}
+
+	/**
+	 * Generates text from a seed that has already been looked up, reporting
+	 * restarts from the seed to the given metrics.
+	 *
+	 * @param graph - The library to generate from
+	 * @param seedId - Id of the seed word
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @param random - Source of random numbers for "random" mode
+	 * @param metrics - Receives the restarts from the seed
+	 * @return the generated text
+	 */
+	static String generateText(WordGraph graph, int seedId, int k, GenerationMode mode, RandomGenerator random,
+			GeneratorMetrics metrics) {
+	    switch (mode) {
+	    	case PROBABLE:
+	    		// "probable" lists words instead of generating text (logic is different)
+	    		return getProbableWordsList(graph, seedId, k);
+
+	    	case DETERMINISTIC:
+	    		// "deterministic" always produces the same words, so it follows a precomputed walk
+	    		return getDeterministicText(graph, seedId, k, metrics);
+
+	    	default:
+	    		return getRandomText(graph, seedId, k, random, metrics);
 	    }
-	    
-		// If other modes, start creating generated string
-		StringBuilder output = new StringBuilder(currentWord);
-	    
-	    // Main logic loop: generates "k" words, 1 at a time, using random or deterministic methods
+	}
+
+	/**
+	 * Generates text the same way as {@link #generateText(String, Integer, String)},
+	 * with "random" mode drawing from a SplittableRandom seeded with rngSeed, so
+	 * the same library, seed, k and rngSeed always give the same text. The text is
+	 * only reproducible for one form of the library, though: freezing renumbers
+	 * the words, so a frozen library, on or off the heap, gives other text for
+	 * the same rngSeed than the mutable library it was made from. Creating a
+	 * ConcurrentGenerator from this Generator freezes it as well.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation: "random", "deterministic" or "probable"
+	 * @param rngSeed - Seed of the random numbers
+	 * @return the generated text, or an error message if the seed is not in the library
+	 */
+	public String generateText(String seed, int k, String mode, long rngSeed) {
+		return generateText(getGraph(), seed, k, GenerationMode.fromString(mode), new SplittableRandom(rngSeed),
+				metrics);
+	}
+
+	/**
+	 * Generates text the same way as {@link #generateText(String, Integer, String)},
+	 * but writes it to a Writer as the words are generated instead of returning
+	 * it. At most a few thousand chars are held at a time, so any k can be
+	 * written in constant memory, and the first words are written before the
+	 * rest are generated. The writer is flushed but not closed.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation: "random", "deterministic" or "probable"
+	 * @param out - Where the text is written
+	 * @throws IOException If there's an error writing the text
+	 */
+	public void generateText(String seed, int k, String mode, Writer out) throws IOException {
+		writeText(getGraph(), seed, k, GenerationMode.fromString(mode), ThreadLocalRandom.current(), metrics, out);
+	}
+
+	/**
+	 * Generates text and writes it to a stream as UTF-8. See
+	 * {@link #generateText(String, int, String, Writer)}. The stream is flushed
+	 * but not closed.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation: "random", "deterministic" or "probable"
+	 * @param out - Where the text is written
+	 * @throws IOException If there's an error writing the text
+	 */
+	public void generateText(String seed, int k, String mode, OutputStream out) throws IOException {
+		generateText(seed, k, mode, new OutputStreamWriter(out, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Generates text and writes it to a channel as UTF-8. See
+	 * {@link #generateText(String, int, String, Writer)}. The channel is not
+	 * closed.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation: "random", "deterministic" or "probable"
+	 * @param out - Where the text is written
+	 * @throws IOException If there's an error writing the text
+	 */
+	public void generateText(String seed, int k, String mode, WritableByteChannel out) throws IOException {
+		generateText(seed, k, mode, Channels.newWriter(out, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Generates the ids of the words {@link #generateText(String, Integer, String)}
+	 * would produce. Each word is only generated when the iterator is asked for
+	 * it. Ids can be turned into words with {@link #getWord(int)} as long as the
+	 * library is not changed.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation: "random", "deterministic" or "probable"
+	 * @return the ids of the generated words
+	 * @throws IllegalArgumentException if the seed is not in the library
+	 */
+	public PrimitiveIterator.OfInt generateWordIds(String seed, int k, String mode) {
+		return generateWordIds(getGraph(), seed, k, GenerationMode.fromString(mode), ThreadLocalRandom.current());
+	}
+
+	/**
+	 * Generates the ids of the generated words as a lazy, sequential stream. See
+	 * {@link #generateWordIds(String, int, String)}.
+	 *
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation: "random", "deterministic" or "probable"
+	 * @return the ids of the generated words
+	 * @throws IllegalArgumentException if the seed is not in the library
+	 */
+	public IntStream generateWordIdStream(String seed, int k, String mode) {
+		PrimitiveIterator.OfInt words = generateWordIds(seed, k, mode);
+		return StreamSupport.intStream(
+				Spliterators.spliteratorUnknownSize(words, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Get the word with the given id.
+	 *
+	 * @param id - id of a word of the current library
+	 * @return the word
+	 */
+	public String getWord(int id) {
+		return getGraph().getWord(id);
+	}
+
+	/**
+	 * Generates the ids of the words of a text lazily. See
+	 * {@link #generateWordIds(String, int, String)}.
+	 *
+	 * @param graph - The library to generate from
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @param random - Source of random numbers for "random" mode
+	 * @return the ids of the generated words
+	 * @throws IllegalArgumentException if the seed is not in the library
+	 */
+	static PrimitiveIterator.OfInt generateWordIds(WordGraph graph, String seed, int k, GenerationMode mode,
+			RandomGenerator random) {
+		String seedLower = seed.toLowerCase();
+		int seedId = graph.getId(seedLower);
+		if (seedId == -1) {
+			throw new IllegalArgumentException("Seed word '" + seedLower + "' not found in the input text.");
+		}
+		return new GeneratedWords(graph, seedId, k, mode, random);
+	}
+
+	/**
+	 * Generates text and writes it as it is generated. The output is the same as
+	 * {@link #generateText(WordGraph, String, int, GenerationMode, RandomGenerator)}
+	 * returns, including the error message for a missing seed.
+	 *
+	 * @param graph - The library to generate from
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @param random - Source of random numbers for "random" mode
+	 * @param out - Where the text is written; flushed but not closed
+	 * @throws IOException If there's an error writing the text
+	 */
+	static void writeText(WordGraph graph, String seed, int k, GenerationMode mode, RandomGenerator random,
+			Writer out) throws IOException {
+		writeText(graph, seed, k, mode, random, GeneratorMetrics.NONE, out);
+	}
+
+	/**
+	 * Generates text, writes it as it is generated and reports it to the given
+	 * metrics and to JFR.
+	 *
+	 * @param graph - The library to generate from
+	 * @param seed - The seed/starting word to generate from
+	 * @param k - Number of words to be generated
+	 * @param mode - Mode of generation
+	 * @param random - Source of random numbers for "random" mode
+	 * @param metrics - Receives the latency and the restarts from the seed
+	 * @param out - Where the text is written; flushed but not closed
+	 * @throws IOException If there's an error writing the text
+	 */
+	static void writeText(WordGraph graph, String seed, int k, GenerationMode mode, RandomGenerator random,
+			GeneratorMetrics metrics, Writer out) throws IOException {
+		GenerationEvent event = new GenerationEvent();
+		event.begin();
+		long start = metrics == GeneratorMetrics.NONE ? 0 : System.nanoTime();
+
+		String seedLower = seed.toLowerCase();
+		int seedId = graph.getId(seedLower);
+		if (seedId == -1) {
+			out.write(seedNotFound(seedLower));
+			out.flush();
+			generationCompleted(event, metrics, start, seedLower, k, mode);
+			return;
+		}
+
+		// Collect the words in a small buffer and hand it to the writer whenever it fills up
+		char[] buffer = new char[WRITE_BUFFER_SIZE];
+		int length = 0;
+		GeneratedWords words = new GeneratedWords(graph, seedId, k, mode, random);
+		boolean first = true;
+		while (words.hasNext()) {
+			int word = words.nextInt();
+			int wordLength = graph.getWordLength(word);
+			if (length + wordLength + 1 > buffer.length) {
+				out.write(buffer, 0, length);
+				length = 0;
+			}
+			if (!first) {
+				buffer[length++] = ' ';
+			}
+			first = false;
+
+			// A word longer than the whole buffer is written on its own
+			if (wordLength > buffer.length - length) {
+				out.write(buffer, 0, length);
+				out.write(graph.getWord(word));
+				length = 0;
+			} else {
+				graph.getWordChars(word, buffer, length);
+				length += wordLength;
+			}
+		}
+		out.write(buffer, 0, length);
+		out.flush();
+
+		if (words.getRestartCount() > 0) {
+			metrics.restartedFromSeed(mode, words.getRestartCount());
+		}
+		generationCompleted(event, metrics, start, seedLower, k, mode);
+	}
+
+	/**
+	 * Get the message returned instead of text when the seed is not in the library.
+	 *
+	 * @param seedLower - the lower-case seed
+	 * @return the error message
+	 */
+	static String seedNotFound(String seedLower) {
+		return "Error: Seed word '" + seedLower + "' not found in the input text.";
+	}
+
+	/**
+	 * Generates text in "random" mode, where every word is followed by one of its
+	 * adjacent words picked at random, weighted by frequency.
+	 *
+	 * @param graph - The library to generate from
+	 * @param seedId - Id of the seed word
+	 * @param k - Number of words to be generated
+	 * @param random - Source of random numbers
+	 * @return the generated text
+	 */
+	private static String getRandomText(WordGraph graph, int seedId, int k, RandomGenerator random,
+			GeneratorMetrics metrics) {
+		// Start creating generated string
+		String seedWord = graph.getWord(seedId);
+		StringBuilder output = new StringBuilder(seedWord);
+		int currentWord = seedId;
+		int restarts = 0;
+
+	    // Main logic loop: generates "k" words, 1 at a time
 		for (int i = 0; i < k - 1; i++) {
-			
-			// Instantiates the data of the word we will use on this iteration
-			WordEntry currentEntry = library.get(currentWord);
-			
+
 			// If word has no adjacent words, restart from seed
-			if (currentEntry == null || currentEntry.getAdjacentWords().isEmpty()) {
-				output.append(" ").append(seedLower);
+			if (graph.getNextWordCount(currentWord) == 0) {
+				output.append(" ").append(seedWord);
 				i++;
-				currentEntry = library.get(seedLower);
-	            
+				currentWord = seedId;
+				restarts++;
+
 	            // If even the seed has no adjacent words, we have to break
-	            if (currentEntry == null || currentEntry.getAdjacentWords().isEmpty()) {
+	            if (graph.getNextWordCount(currentWord) == 0) {
 	                break;
 	            }
 	        }
-			
-			// Resets nextWord and gets adjacent words list, since it now is known to exist
-			HashMap<String, Integer> adjWords = currentEntry.getAdjacentWords();
-			String nextWord = null;
-			
-			// Decide which mode to use
-			switch (mode.toLowerCase()) {
-				case "random":
-					nextWord = getRandomNextWord(adjWords);
-					break;
-					
-				case "deterministic":
-					// Optimization loop that find the word with highest frequency
-					int maxFreq = -1;
-					nextWord = null;
-					for (Map.Entry<String,Integer> entry : adjWords.entrySet()) {
-					    int freq = entry.getValue();
-					    String word = entry.getKey();
-					    if (freq > maxFreq ||
-					        (freq == maxFreq && (nextWord == null || word.compareTo(nextWord) < 0))) {
-					        maxFreq = freq;
-					        nextWord = word;
-					    }
-					}
-					break;
-					
-				default:
-					throw new IllegalArgumentException("Unknown mode: " + mode);
-			}
-			
+
 			// Appends the generated word "nextWord" and iteratively feeds it back into the loop by
 			// updating the value
-			output.append(" ").append(nextWord);
+			int nextWord = graph.getRandomNextWord(currentWord, random);
+			graph.appendWord(nextWord, output.append(" "));
 			currentWord = nextWord;
 		}
-		
+
+		if (restarts > 0) {
+			metrics.restartedFromSeed(GenerationMode.RANDOM, restarts);
+		}
+
 		// Returns generated output by converting the StringBUilder to a String
-		return output.toString().trim();
+		return output.toString();
+	}
+
+	/**
+	 * Generates text in "deterministic" mode, where every word is followed by its
+	 * most probable adjacent word. Once the walk from the seed reaches a word it
+	 * has already produced, the rest of the text repeats the same cycle, so the
+	 * cycle is copied instead of walked word by word.
+	 *
+	 * @param graph - The library to generate from
+	 * @param seedId - Id of the seed word
+	 * @param k - Number of words to be generated
+	 * @return the generated text
+	 */
+	private static String getDeterministicText(WordGraph graph, int seedId, int k, GeneratorMetrics metrics) {
+		String seedWord = graph.getWord(seedId);
+
+		// If even the seed has no adjacent words, it is only restarted once
+		if (graph.getNextWordCount(seedId) == 0) {
+			if (k >= 2) {
+				metrics.restartedFromSeed(GenerationMode.DETERMINISTIC, 1);
+			}
+			return k < 2 ? seedWord : seedWord + " " + seedWord;
+		}
+
+		DeterministicWalk walk = walkFrom(graph, seedId, Math.max(k, 1) + 1);
+		int count = getDeterministicWordCount(walk, k);
+		if (metrics != GeneratorMetrics.NONE) {
+			long restarts = countRestarts(walk, count);
+			if (restarts > 0) {
+				metrics.restartedFromSeed(GenerationMode.DETERMINISTIC, restarts);
+			}
+		}
+		return getDeterministicText(graph, walk, count);
+	}
+
+	/**
+	 * Counts the restarts from the seed in the first {@code count} words of a
+	 * walk, which are the dead ends before the last word. The cycle is counted
+	 * once and multiplied instead of walked word by word.
+	 *
+	 * @param walk - walk covering at least {@code count} positions
+	 * @param count - Number of words of the text
+	 * @return the number of restarts
+	 */
+	static long countRestarts(DeterministicWalk walk, int count) {
+		long restarts = 0;
+		int prefixLength = Math.min(count - 1, walk.getLength());
+		for (int i = 0; i < prefixLength; i++) {
+			if (walk.isDeadEnd(i)) {
+				restarts++;
+			}
+		}
+
+		if (count - 1 > walk.getLength()) {
+			int cycleLength = walk.getLength() - walk.getCycleStart();
+			int cycleRestarts = 0;
+			for (int i = walk.getCycleStart(); i < walk.getLength(); i++) {
+				if (walk.isDeadEnd(i)) {
+					cycleRestarts++;
+				}
+			}
+			long remaining = count - 1 - walk.getLength();
+			restarts += remaining / cycleLength * cycleRestarts;
+			for (int i = 0; i < remaining % cycleLength; i++) {
+				if (walk.isDeadEnd(walk.getCycleStart() + i)) {
+					restarts++;
+				}
+			}
+		}
+		return restarts;
+	}
+
+	/**
+	 * Works out how many words "deterministic" mode produces for a given k, which
+	 * is k (at least 1), or one more if the text restarts from the seed right
+	 * before the last word.
+	 *
+	 * @param walk - walk from a seed that has adjacent words, covering at least
+	 *             max(k, 1) + 1 positions
+	 * @param k - Number of words to be generated
+	 * @return the number of words in the text
+	 */
+	static int getDeterministicWordCount(DeterministicWalk walk, int k) {
+		int count = Math.max(k, 1);
+
+		// Restarting from the seed adds the seed and the word after it in one step,
+		// so a restart in the last position is followed by one extra word
+		if (k >= 2 && walk.isDeadEnd(count - 2)) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes out the first {@code count} words of a deterministic walk.
+	 *
+	 * @param graph - The library the walk was made in
+	 * @param walk - walk covering at least {@code count} positions
+	 * @param count - Number of words to write out
+	 * @return the generated text
+	 */
+	static String getDeterministicText(WordGraph graph, DeterministicWalk walk, int count) {
+		// Words before the walk starts repeating
+		StringBuilder output = new StringBuilder();
+		int prefixLength = Math.min(count, walk.getLength());
+		for (int i = 0; i < prefixLength; i++) {
+			if (i > 0) {
+				output.append(" ");
+			}
+			graph.appendWord(walk.wordAt(i), output);
+		}
+
+		// Copy the cycle as a whole as often as it fits, then finish word by word
+		if (prefixLength < count) {
+			StringBuilder cycle = new StringBuilder();
+			for (int i = walk.getCycleStart(); i < walk.getLength(); i++) {
+				graph.appendWord(walk.wordAt(i), cycle.append(" "));
+			}
+			int cycleLength = walk.getLength() - walk.getCycleStart();
+			int remaining = count - prefixLength;
+			for (int i = 0; i < remaining / cycleLength; i++) {
+				output.append(cycle);
+			}
+			for (int i = 0; i < remaining % cycleLength; i++) {
+				graph.appendWord(walk.wordAt(walk.getCycleStart() + i), output.append(" "));
+			}
+		}
+
+		return output.toString();
+	}
+
+	/**
+	 * Follows the most probable adjacent word from the seed until a word repeats
+	 * or {@code limit} words have been recorded. A word without adjacent words is
+	 * followed by the seed.
+	 *
+	 * @param graph - The library to walk
+	 * @param seedId - Id of the seed word, which must have adjacent words
+	 * @param limit - Maximum number of words to record
+	 * @return the recorded walk
+	 */
+	static DeterministicWalk walkFrom(WordGraph graph, int seedId, int limit) {
+		int[] words = new int[Math.min(limit, 16)];
+		boolean[] deadEnds = new boolean[words.length];
+		// Position of each recorded word, stored as position + 1 so 0 means unseen
+		IntCountMap positions = new IntCountMap();
+
+		int current = seedId;
+		int length = 0;
+		int cycleStart = -1;
+		while (length < limit) {
+			int seenAt = positions.get(current);
+			if (seenAt != 0) {
+				cycleStart = seenAt - 1;
+				break;
+			}
+			positions.add(current, length + 1);
+
+			if (length == words.length) {
+				words = Arrays.copyOf(words, Math.min(limit, length * 2));
+				deadEnds = Arrays.copyOf(deadEnds, words.length);
+			}
+			words[length] = current;
+			deadEnds[length] = graph.getNextWordCount(current) == 0;
+			length++;
+
+			current = deadEnds[length - 1] ? seedId : graph.getMostProbableNextWord(current);
+		}
+
+		return new DeterministicWalk(words, deadEnds, length, cycleStart);
 	}
-	
+
 	/**
 	 * Returns the first k words that are the most probable to come after the
-	 * seed. 
-	 * 
-	 * If the size of seed's adjacency list is smaller than k, only 
-	 * produce up to the size of the adjacency list. 
-	 * 
-	 * @param seed - Desired seed word
+	 * seed.
+	 *
+	 * If the size of seed's adjacency list is smaller than k, only
+	 * produce up to the size of the adjacency list.
+	 *
+	 * @param graph - The library to read from
+	 * @param seedId - Id of the desired seed word
 	 * @param k - Number of words to display
 	 * @return String showing the words in descending order based on frequency
 	 */
-	private String getProbableWordsList(String seed, Integer k) {
-		// Get the adjacent words HashMap from the seed word
-		WordEntry seedWord = library.get(seed);
-		HashMap<String, Integer> adjacentList = seedWord.getAdjacentWords();
-		List<Map.Entry<String, Integer>> entryList = new ArrayList<>(adjacentList.entrySet());
-		
-		// Convert the HashMap and sort it accordingly
-		entryList.sort((a, b) -> {
-		    int valueCompare = b.getValue().compareTo(a.getValue()); // Sort by frequency value (descending)
-		    if (valueCompare != 0) {
-		        return valueCompare;
-		    }
-		    return a.getKey().compareTo(b.getKey()); // Sort by key alphabetically (ascending) if values are equal
-		});
-		
+	private static String getProbableWordsList(WordGraph graph, int seedId, Integer k) {
+		// The adjacent words of the seed are ranked by frequency and then alphabetically
+		int nextWordCount = graph.getNextWordCount(seedId);
+
 		// Build and return the output using a StringBuilder
 		StringBuilder result = new StringBuilder();
 
-		if (adjacentList.size() < k) {
-			k = adjacentList.size();
+		if (nextWordCount < k) {
+			k = nextWordCount;
 		}
 		for (int i = 0; i < k; i++) {
-			result.append(entryList.get(i).getKey());
+			graph.appendWord(graph.getNextWord(seedId, i), result);
 			if (i < k - 1)
 				result.append(" ");
 		}
-		
+
 		return result.toString();
 	}
-	
-	/** 
-	 * Computes the next word using a weighted probability algorithm.
-	 * @return
+
+	/**
+	 * Sets where this Generator reports its measurements. Metrics are off
+	 * ({@link GeneratorMetrics#NONE}) until this is called.
+	 *
+	 * @param metrics - the metrics to report to, or null to switch them off
+	 */
+	public void setMetrics(GeneratorMetrics metrics) {
+		this.metrics = metrics == null ? GeneratorMetrics.NONE : metrics;
+	}
+
+	/**
+	 * Get where this Generator reports its measurements.
+	 *
+	 * @return the metrics, {@link GeneratorMetrics#NONE} if they are off
 	 */
-	private String getRandomNextWord(Map<String, Integer> adjacentList) {
-		// Add up total frequency
-		int totalFreq = 0;
-		for (int freq : adjacentList.values()) {
-			totalFreq += freq;
+	public GeneratorMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Get the library that generation reads from: the off-heap library, the
+	 * frozen library once {@link #freeze()} was called, and the WordEntries
+	 * otherwise.
+	 *
+	 * @return the library as a WordGraph
+	 */
+	WordGraph getGraph() {
+		return offHeap != null ? offHeap : frozen != null ? frozen : entryGraph;
+	}
+
+	/**
+	 * Get the frozen library.
+	 *
+	 * @return the frozen library
+	 * @throws IllegalStateException if {@link #freeze()} has not been called, or
+	 *                               the library is off the heap
+	 */
+	public FrozenLibrary getFrozenLibrary() {
+		if (frozen == null) {
+			throw new IllegalStateException(offHeap != null ? "Library is off the heap" : "Library is not frozen");
+		}
+		return frozen;
+	}
+
+	/**
+	 * Get the off-heap library. This Generator releases its reference when the
+	 * library is replaced or the Generator is closed; call
+	 * {@link OffHeapLibrary#retain()} to keep using the library after that.
+	 *
+	 * @return the off-heap library
+	 * @throws IllegalStateException if the library is not off the heap
+	 */
+	public OffHeapLibrary getOffHeapLibrary() {
+		if (offHeap == null) {
+			throw new IllegalStateException("Library is not off the heap");
+		}
+		return offHeap;
+	}
+
+	/**
+	 * Presents the mutable library (the Vocabulary and its WordEntries) as a
+	 * WordGraph. It always reads the current fields, so it stays valid when the
+	 * library is rebuilt.
+	 */
+	private class EntryGraph implements WordGraph {
+		@Override
+		public int size() {
+			return library.size();
+		}
+
+		@Override
+		public String getWord(int id) {
+			return vocabulary.getWord(id);
+		}
+
+		@Override
+		public int getId(String word) {
+			return vocabulary.getId(word);
+		}
+
+		@Override
+		public int getFrequency(int id) {
+			return library.get(id).getFrequency();
+		}
+
+		@Override
+		public int getNextWordCount(int id) {
+			return library.get(id).getAdjacentWords().size();
+		}
+
+		@Override
+		public int getNextWord(int id, int rank) {
+			return library.get(id).getSortedNextWords(vocabulary)[rank];
+		}
+
+		@Override
+		public int getNextWordFrequency(int id, int rank) {
+			WordEntry entry = library.get(id);
+			return entry.getAdjacentWords().get(entry.getSortedNextWords(vocabulary)[rank]);
+		}
+
+		@Override
+		public int getMostProbableNextWord(int id) {
+			return library.get(id).getMostProbableNextWord(vocabulary);
 		}
 
-		// Pick a random value between [0, totalFreq]
-		int rand = new Random().nextInt(totalFreq) + 1;
-		
-		// The loop iterates over each word and subtracts its frequency from rand. When rand drops to 0 
-		// or below, it means the random number has landed in the range belonging to this word.
-		for (Map.Entry<String, Integer> entry : adjacentList.entrySet()) {
-			rand = rand - entry.getValue();
-			if (rand <= 0) {
-				return entry.getKey();
+		@Override
+		public int getRandomNextWord(int id, RandomGenerator random) {
+			WordEntry entry = library.get(id);
+			if (metrics != GeneratorMetrics.NONE) {
+				metrics.samplerLookup(entry.hasSampler());
 			}
+			return entry.getSampler().sample(random);
 		}
-		return "";
 	}
 
-}
\ No newline at end of file
+}
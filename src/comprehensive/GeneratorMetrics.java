@@ -0,0 +1,74 @@
+package comprehensive;
+
+/**
+ * Receives measurements from a Generator: how fast text is ingested, what the
+ * library looks like afterwards, how long generation takes, how often it
+ * restarts from the seed and how often a sampler can be reused. Every method
+ * does nothing by default, so an implementation only overrides what it needs.
+ *
+ * Generators start out with {@link #NONE}, and only measure anything once a
+ * different implementation is set, so leaving metrics off costs nothing but a
+ * reference comparison. See RecordingMetrics for an implementation that keeps
+ * totals and latency histograms and can be read over JMX.
+ *
+ * Implementations may be called from several threads at once.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/13/25
+ */
+public interface GeneratorMetrics {
+	/** Metrics that are switched off. */
+	GeneratorMetrics NONE = new GeneratorMetrics() {
+	};
+
+	/**
+	 * Called after text was added to a library.
+	 *
+	 * @param bytes   - number of bytes of text read
+	 * @param tokens  - number of words read
+	 * @param nanos   - time taken, in nanoseconds
+	 * @param library - the library afterwards; only valid during the call
+	 */
+	default void ingestCompleted(long bytes, long tokens, long nanos, WordGraph library) {
+	}
+
+	/**
+	 * Called after a library was loaded from a snapshot.
+	 *
+	 * @param bytes   - size of the snapshot
+	 * @param nanos   - time taken, in nanoseconds
+	 * @param library - the loaded library; only valid during the call
+	 */
+	default void libraryLoaded(long bytes, long nanos, WordGraph library) {
+	}
+
+	/**
+	 * Called after text was generated.
+	 *
+	 * @param mode  - mode of generation
+	 * @param k     - number of words asked for
+	 * @param nanos - time taken, in nanoseconds
+	 */
+	default void generationCompleted(GenerationMode mode, int k, long nanos) {
+	}
+
+	/**
+	 * Called after generating text that reached a word without adjacent words
+	 * and started over from the seed.
+	 *
+	 * @param mode     - mode of generation
+	 * @param restarts - number of times the text restarted from the seed
+	 */
+	default void restartedFromSeed(GenerationMode mode, long restarts) {
+	}
+
+	/**
+	 * Called every time "random" mode needs the sampler of a word of a mutable
+	 * library. Frozen libraries build all samplers up front and don't report.
+	 *
+	 * @param hit - true if the sampler was already built, false if it had to be
+	 *            built for this word
+	 */
+	default void samplerLookup(boolean hit) {
+	}
+}
@@ -1,13 +1,43 @@
 package comprehensive;
 
 import static org.junit.jupiter.api.Assertions.*;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 class GeneratorTester {
 	String catPath;
 	
+	@TempDir
+	Path tempDir;
 	
 	@BeforeEach
 	void setUp() throws Exception {
@@ -56,9 +86,924 @@ class GeneratorTester {
 		
 		assertEquals(expected, actual);
 	}
+
+	@Test
+	void testVocabularyInternCharsMatchesString() {
+		Vocabulary vocabulary = new Vocabulary();
+		int catId = vocabulary.intern("cat");
+		char[] chars = { 'c', 'a', 't', 'x' };
+		
+		assertEquals(catId, vocabulary.intern(chars, 3));
+		assertEquals(1, vocabulary.size());
+		assertEquals(-1, vocabulary.getId("dog"));
+	}
+	
+	@Test
+	void testDeterministicRestartsFromSeed() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("a b c z a b c d"));
+		
+		assertEquals("a b c d", generator.generateText("a", 4, "deterministic"));
+		assertEquals("a b c d a b c", generator.generateText("a", 7, "deterministic"));
+	}
+	
+	@Test
+	void testTokenizerMatchesDelimiterAcrossChunks() {
+		byte[] bytes = "The dog's BONE--was it_there? Straße ½ café".getBytes(StandardCharsets.UTF_8);
+		List<String> words = new ArrayList<>();
+		WordTokenizer tokenizer = new WordTokenizer();
+		
+		// Feed one byte at a time so words and characters are split across chunks
+		for (int i = 0; i < bytes.length; i++) {
+			tokenizer.feed(ByteBuffer.wrap(bytes, i, 1), (chars, length) -> words.add(new String(chars, 0, length)));
+		}
+		tokenizer.finish((chars, length) -> words.add(new String(chars, 0, length)));
+		
+		assertEquals(List.of("the", "dog's", "bone", "was", "it_there", "straße", "½", "café"), words);
+	}
+	
+	@Test
+	void testMappedFileMatchesReadFile() throws IOException {
+		String path = writeCorpus("The cat sat on the mat. Straße café the cat ate a bat");
+		Generator read = new Generator();
+		read.createLibraryFromFile(path);
+		
+		// A tiny window makes words and characters cross window boundaries
+		Generator mapped = new Generator();
+		mapped.createLibraryFromMappedFile(path, 3);
+		
+		assertEquals(read.generateText("the", 5, "probable"), mapped.generateText("the", 5, "probable"));
+		assertEquals(read.generateText("straße", 8, "deterministic"), mapped.generateText("straße", 8, "deterministic"));
+	}
+	
+	@Test
+	void testParallelBuildMatchesSequentialBuild() throws IOException {
+		// Large enough to be cut into several shards
+		StringBuilder text = new StringBuilder();
+		String[] words = { "the", "cat", "sat", "on", "mat", "Straße", "café", "a", "bat" };
+		for (int i = 0; i < 400_000; i++) {
+			text.append(words[(i * 7 + i / 3) % words.length]).append(i % 5 == 0 ? ". " : " ");
+		}
+		String path = writeCorpus(text.toString());
+		
+		Generator sequential = new Generator();
+		sequential.createLibraryFromFile(path);
+		Generator parallel = new Generator();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			parallel.createLibraryFromFileParallel(path, pool);
+		} finally {
+			pool.shutdown();
+		}
+
+		for (String word : words) {
+			assertEquals(sequential.generateText(word, 10, "probable"), parallel.generateText(word, 10, "probable"));
+			assertEquals(sequential.generateText(word, 20, "deterministic"), parallel.generateText(word, 20, "deterministic"));
+		}
+	}
+	
+	@Test
+	void testAliasSamplerIsExactlyWeighted() {
+		IntCountMap adjacentWords = new IntCountMap();
+		adjacentWords.add(0, 5);
+		adjacentWords.add(1, 1);
+		adjacentWords.add(2, 3);
+		adjacentWords.add(7, 2);
+		AliasSampler sampler = new AliasSampler(adjacentWords);
+		
+		// Every (column, value) pair is equally likely, so counting the outcomes of
+		// all of them gives the exact distribution
+		int[] picks = new int[8];
+		for (int column = 0; column < sampler.size(); column++) {
+			for (int value = 0; value < sampler.getTotalFrequency(); value++) {
+				picks[sampler.select(column, value)]++;
+			}
+		}
+		
+		assertArrayEquals(new int[] { 5 * 4, 1 * 4, 3 * 4, 0, 0, 0, 0, 2 * 4 }, picks);
+	}
+	
+	@Test
+	void testDeterministicRepeatsCycleForLargeK() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("a b c z a b c d"));
+		
+		// The walk settles into "a b c d" and every restart adds one extra word in
+		// the last position
+		String[] words = generator.generateText("a", 10_001, "deterministic").split(" ");
+		assertEquals(10_002, words.length);
+		for (int i = 0; i < words.length; i++) {
+			assertEquals("abcd".substring(i % 4, i % 4 + 1), words[i]);
+		}
+	}
+	
+	@Test
+	void testSortedNextWordsRefreshAfterUpdate() {
+		Vocabulary vocabulary = new Vocabulary();
+		WordEntry entry = new WordEntry(vocabulary.intern("the"), "the");
+		int cat = vocabulary.intern("cat");
+		int bat = vocabulary.intern("bat");
+		int mat = vocabulary.intern("mat");
+		entry.addAdjacentWord(cat, 2);
+		entry.addAdjacentWord(mat, 1);
+		entry.addAdjacentWord(bat, 1);
+		
+		assertArrayEquals(new int[] { cat, bat, mat }, entry.getSortedNextWords(vocabulary));
+		
+		entry.addAdjacentWord(mat, 2);
+		assertArrayEquals(new int[] { mat, cat, bat }, entry.getSortedNextWords(vocabulary));
+		assertEquals(mat, entry.getMostProbableNextWord(vocabulary));
+	}
+	
+	@Test
+	void testSnapshotRoundTrip() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("The cat sat on the mat. Straße café the cat ate a bat"));
+		String snapshot = tempDir.resolve("library.bin").toString();
+		generator.saveLibrary(snapshot);
+		
+		Generator loaded = new Generator();
+		loaded.loadLibrary(snapshot);
+		
+		assertEquals(generator.generateText("the", 5, "probable"), loaded.generateText("the", 5, "probable"));
+		assertEquals(generator.generateText("straße", 12, "deterministic"), loaded.generateText("straße", 12, "deterministic"));
+	}
+	
+	@Test
+	void testLoadRejectsTextFile() throws IOException {
+		String path = writeCorpus("not a snapshot");
+		
+		assertThrows(IOException.class, () -> new Generator().loadLibrary(path));
+	}
+	
+	@Test
+	void testLoadRejectsCorruptSnapshot() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("The cat sat on the mat. The dog sat on the cat!"));
+		Path snapshot = tempDir.resolve("library.bin");
+		generator.saveLibrary(snapshot.toString());
+		byte[] bytes = Files.readAllBytes(snapshot);
+		
+		// Cut in half, a word count that is far too large, an adjacent word id out of
+		// range, a zero frequency, and rows whose frequencies add up past an int
+		int entryCount = ByteBuffer.wrap(bytes).getInt(12);
+		byte[] truncated = Arrays.copyOf(bytes, bytes.length / 2);
+		byte[] hugeCount = bytes.clone();
+		hugeCount[8] = 0x02;
+		byte[] badId = bytes.clone();
+		badId[bytes.length - 8 * entryCount] = 0x7F;
+		byte[] zeroFrequency = bytes.clone();
+		ByteBuffer.wrap(zeroFrequency).putInt(bytes.length - 4, 0);
+		byte[] overflow = bytes.clone();
+		for (int entry = 0; entry < entryCount; entry++) {
+			ByteBuffer.wrap(overflow).putInt(bytes.length - 4 * (entry + 1), 0x40000000);
+		}
+		for (byte[] corrupt : new byte[][] { truncated, hugeCount, badId, zeroFrequency, overflow }) {
+			Path file = Files.write(tempDir.resolve("corrupt.bin"), corrupt);
+			IOException heap = assertThrows(IOException.class, () -> new Generator().loadLibrary(file.toString()));
+			assertTrue(heap.getMessage().contains(file.toString()));
+			assertThrows(IOException.class, () -> new Generator().loadLibraryOffHeap(file.toString()));
+		}
+	}
+	
+	@Test
+	void testFrozenLibraryMatchesMutableLibrary() throws IOException {
+		String path = writeCorpus("The cat sat on the mat. The dog sat on the cat! Straße café the end");
+		Generator mutable = new Generator();
+		mutable.createLibraryFromFile(path);
+		Generator frozen = new Generator();
+		frozen.createLibraryFromFile(path);
+		frozen.freeze();
+		
+		assertTrue(frozen.isFrozen());
+		for (String seed : new String[] { "the", "sat", "café", "end", "missing" }) {
+			assertEquals(mutable.generateText(seed, 10, "probable"), frozen.generateText(seed, 10, "probable"));
+			assertEquals(mutable.generateText(seed, 25, "deterministic"), frozen.generateText(seed, 25, "deterministic"));
+		}
+	}
+	
+	@Test
+	void testConcurrentGeneratorSharesLibrary() throws Exception {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("the cat ate a bat the cat sat on the mat"));
+		String expected = generator.generateText("the", 12, "deterministic");
+		ConcurrentGenerator concurrent = new ConcurrentGenerator(generator);
+		
+		// Many threads at once all see the same deterministic answer
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		List<Future<String>> results = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			results.add(threads.submit(() -> concurrent.generateText("THE", 12, GenerationMode.DETERMINISTIC)));
+			threads.submit(() -> concurrent.generateText("the", 50, GenerationMode.RANDOM));
+		}
+		for (Future<String> result : results) {
+			assertEquals(expected, result.get());
+		}
+		threads.shutdown();
+	}
+	
+	@Test
+	void testUnknownModeIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> GenerationMode.fromString("creative"));
+		assertEquals(GenerationMode.PROBABLE, GenerationMode.fromString("Probable"));
+	}
+	
+	@Test
+	void testAppendMatchesBuildingFromWholeText() throws IOException {
+		Generator whole = new Generator();
+		whole.createLibraryFromFile(writeCorpus("the cat sat on the mat the cat ate a bat"));
+		Generator appended = new Generator();
+		appended.createLibraryFromFile(writeCorpus("the cat sat on the"));
+		appended.appendFromFile(writeCorpus("mat the cat"));
+		appended.appendFromStream(new ByteArrayInputStream(" ate a bat".getBytes(StandardCharsets.UTF_8)));
+		
+		Path wholeSnapshot = tempDir.resolve("whole.bin");
+		Path appendedSnapshot = tempDir.resolve("appended.bin");
+		whole.saveLibrary(wholeSnapshot.toString());
+		appended.saveLibrary(appendedSnapshot.toString());
+		assertEquals(-1, Files.mismatch(wholeSnapshot, appendedSnapshot));
+	}
+	
+	@Test
+	void testAppendRefreshesTouchedWords() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("a b a c"));
+		assertEquals("b c", generator.generateText("a", 5, "probable"));
+		
+		generator.appendFromFile(writeCorpus("a c"));
+		assertEquals("c b", generator.generateText("a", 5, "probable"));
+		assertEquals("a c a c", generator.generateText("a", 4, "deterministic"));
+	}
+	
+	@Test
+	void testAppendThawsFrozenLibrary() throws IOException {
+		Generator whole = new Generator();
+		whole.createLibraryFromFile(writeCorpus("the cat sat on the mat the cat ate"));
+		Generator appended = new Generator();
+		appended.createLibraryFromFile(writeCorpus("the cat sat on"));
+		String snapshot = tempDir.resolve("library.bin").toString();
+		appended.saveLibrary(snapshot);
+		appended.loadLibrary(snapshot);
+		
+		appended.appendFromFile(writeCorpus("the mat the cat ate"));
+		assertFalse(appended.isFrozen());
+		for (String seed : new String[] { "the", "cat", "on", "ate" }) {
+			assertEquals(whole.generateText(seed, 10, "probable"), appended.generateText(seed, 10, "probable"));
+			assertEquals(whole.generateText(seed, 10, "deterministic"), appended.generateText(seed, 10, "deterministic"));
+		}
+	}
+	
+	@Test
+	void testBigramLibraryMatchesGenerator() throws IOException {
+		String path = writeCorpus("The cat sat on the mat. The dog sat on the cat! a b c z a b c d the end");
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(path);
+		NGramLibrary bigrams = new NGramLibrary(2);
+		bigrams.createLibraryFromFile(path);
+		
+		for (String seed : new String[] { "the", "sat", "a", "end", "missing" }) {
+			assertEquals(generator.generateText(seed, 10, "probable"), bigrams.generateText(seed, 10, "probable"));
+			for (int k = 0; k < 12; k++) {
+				assertEquals(generator.generateText(seed, k, "deterministic"), bigrams.generateText(seed, k, "deterministic"));
+			}
+		}
+	}
+	
+	@Test
+	void testTrigramLibraryUsesTwoWordContexts() throws IOException {
+		NGramLibrary trigrams = new NGramLibrary(3);
+		trigrams.createLibraryFromFile(writeCorpus("a x b a x b a x b c x d c x d"));
+		
+		// After "x" alone, "b" is more frequent, but after "c x" only "d" ever came
+		assertEquals("b d", trigrams.generateText("x", 5, "probable"));
+		assertEquals("d", trigrams.generateText("c x", 5, "probable"));
+		assertEquals("c x d c x d", trigrams.generateText("c x", 6, "deterministic"));
+		assertEquals("c x d c x d", trigrams.generateText("c x", 6, GenerationMode.RANDOM, new SplittableRandom(7)));
+		assertEquals(7, trigrams.getContextCount(2));
+		assertEquals(5, trigrams.getContextCount(1));
+	}
+	
+	@Test
+	void testTrigramLibraryBacksOffToShorterContext() throws IOException {
+		NGramLibrary trigrams = new NGramLibrary(3);
+		trigrams.createLibraryFromFile(writeCorpus("a b c d b e"));
+		
+		// "c b" never occurred, so the word after it is picked from "b" alone,
+		// and "e" has no adjacent words so the text restarts from the seed
+		assertEquals("c e", trigrams.generateText("c b", 5, "probable"));
+		assertEquals("c b c d b e", trigrams.generateText("c b", 6, "deterministic"));
+		assertEquals("e e", trigrams.generateText("e", 3, "deterministic"));
+		assertThrows(IllegalArgumentException.class, () -> new NGramLibrary(1));
+	}
+	
+	@Test
+	void testStreamedTextMatchesGeneratedText() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("The cat sat on the mat. a b c z a b c d the end"));
+		
+		for (String seed : new String[] { "the", "a", "end", "missing" }) {
+			for (String mode : new String[] { "deterministic", "probable" }) {
+				for (int k : new int[] { 0, 1, 2, 7, 5000 }) {
+					StringWriter out = new StringWriter();
+					generator.generateText(seed, k, mode, out);
+					assertEquals(generator.generateText(seed, k, mode), out.toString());
+				}
+			}
+		}
+		
+		// Random text streams the same words when it draws the same random numbers
+		StringWriter out = new StringWriter();
+		Generator.writeText(generator.getGraph(), "the", 3000, GenerationMode.RANDOM, new Random(42), out);
+		assertEquals(Generator.generateText(generator.getGraph(), "the", 3000, GenerationMode.RANDOM, new Random(42)),
+				out.toString());
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		generator.generateText("a", 4, "deterministic", bytes);
+		assertEquals("a b c d", bytes.toString(StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	void testGeneratedWordIdsAreLazy() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("a b c z a b c d"));
+		
+		// Only the words that are read get generated, even for a huge k
+		String first = generator.generateWordIdStream("a", Integer.MAX_VALUE, "deterministic").limit(6)
+				.mapToObj(generator::getWord).collect(Collectors.joining(" "));
+		assertEquals("a b c d a b", first);
+		
+		PrimitiveIterator.OfInt words = generator.generateWordIds("c", 5, "probable");
+		assertEquals("d", generator.getWord(words.nextInt()));
+		assertEquals("z", generator.getWord(words.nextInt()));
+		assertFalse(words.hasNext());
+		assertThrows(IllegalArgumentException.class, () -> generator.generateWordIds("missing", 5, "random"));
+	}
+	
+	@Test
+	void testBatchMatchesSingleRequests() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("The cat sat on the mat. a b c z a b c d the end"));
+		ConcurrentGenerator concurrent = new ConcurrentGenerator(generator);
+		
+		List<GenerationRequest> requests = new ArrayList<>();
+		for (String seed : new String[] { "the", "A", "a", "end", "missing" }) {
+			for (int k : new int[] { 7, 0, 1, 2, 3, 4, 5, 25, 7 }) {
+				requests.add(new GenerationRequest(seed, k, GenerationMode.DETERMINISTIC));
+				requests.add(new GenerationRequest(seed, k, "probable"));
+			}
+			requests.add(new GenerationRequest(seed, 1, GenerationMode.RANDOM));
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(4);
+		List<String> results;
+		try {
+			results = concurrent.generateTexts(requests, pool);
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(requests.size(), results.size());
+		for (int i = 0; i < requests.size(); i++) {
+			GenerationRequest request = requests.get(i);
+			assertEquals(concurrent.generateText(request.getSeed(), request.getK(), request.getMode()), results.get(i));
+		}
+	}
+	
+	@Test
+	void testBatchReportsEveryRequestToMetrics() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("a b c z a b c d"));
+		ConcurrentGenerator concurrent = new ConcurrentGenerator(generator);
+		List<GenerationRequest> requests = List.of(new GenerationRequest("a", 7, GenerationMode.DETERMINISTIC),
+				new GenerationRequest("a", 1000, GenerationMode.DETERMINISTIC),
+				new GenerationRequest("d", 3, GenerationMode.DETERMINISTIC),
+				new GenerationRequest("a", 3, GenerationMode.PROBABLE),
+				new GenerationRequest("missing", 3, GenerationMode.RANDOM),
+				new GenerationRequest("z", 1, GenerationMode.RANDOM));
+		
+		RecordingMetrics single = new RecordingMetrics();
+		concurrent.setMetrics(single);
+		for (GenerationRequest request : requests) {
+			concurrent.generateText(request.getSeed(), request.getK(), request.getMode());
+		}
+		RecordingMetrics batch = new RecordingMetrics();
+		concurrent.setMetrics(batch);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			concurrent.generateTexts(requests, pool);
+		} finally {
+			pool.shutdown();
+		}
+		
+		for (GenerationMode mode : GenerationMode.values()) {
+			assertEquals(single.getLatencyHistogram(mode).getCount(), batch.getLatencyHistogram(mode).getCount());
+		}
+		assertTrue(single.getRestartCount() > 0);
+		assertEquals(single.getRestartCount(), batch.getRestartCount());
+	}
+	
+	@Test
+	void testLatencyHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int value = 1; value <= 100_000; value++) {
+			histogram.record(value);
+		}
+		
+		assertEquals(100_000, histogram.getCount());
+		assertEquals(100_000, histogram.getMax());
+		assertEquals(50_000.5, histogram.getMean(), 1e-9);
+		long median = histogram.getValueAtPercentile(50);
+		assertTrue(median >= 50_000 && median <= 50_000 * 33 / 32, "median " + median);
+		assertEquals(100_000, histogram.getValueAtPercentile(100));
+		for (long value : new long[] { 0, 63, 64, 1000, 123_456_789, Long.MAX_VALUE }) {
+			int bucket = LatencyHistogram.bucketOf(value);
+			assertTrue(LatencyHistogram.highestValueOf(bucket) >= value);
+			assertTrue(bucket == 0 || LatencyHistogram.highestValueOf(bucket - 1) < value);
+		}
+	}
+	
+	@Test
+	void testRecordingMetrics() throws Exception {
+		RecordingMetrics metrics = new RecordingMetrics();
+		Generator generator = new Generator();
+		generator.setMetrics(metrics);
+		generator.createLibraryFromFile(writeCorpus("a b c z a b c d"));
+		
+		assertEquals(8, metrics.getTokensIngested());
+		assertEquals(15, metrics.getBytesIngested());
+		assertEquals(5, metrics.getVocabularySize());
+		assertEquals(5, metrics.getBigramCount());
+		assertArrayEquals(new long[] { 1, 3, 1 }, metrics.getOutDegreeHistogram());
+		
+		// "d" has no adjacent words, so the text restarts from the seed after every "d"
+		generator.generateText("a", 7, "deterministic");
+		assertEquals(1, metrics.getRestartCount());
+		generator.generateText("a", 1000, "deterministic");
+		long restarts = metrics.getRestartCount() - 1;
+		generator.generateText("a", 1000, "deterministic", new StringWriter());
+		assertEquals(restarts, metrics.getRestartCount() - 1 - restarts);
+		assertEquals(3, metrics.getLatencyHistogram(GenerationMode.DETERMINISTIC).getCount());
+		
+		// Samplers are built once and reused after that
+		generator.generateText("a", 100, "random");
+		assertTrue(metrics.getSamplerHitRate() > 0.9 && metrics.getSamplerHitRate() < 1);
+		
+		ObjectName name = metrics.registerMBean("test");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(8L, server.getAttribute(name, "TokensIngested"));
+		} finally {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+	}
+	
+	@Test
+	void testOffHeapLibraryMatchesFrozenLibrary() throws IOException {
+		String path = writeCorpus("The cat sat on the mat. The dog sat on the cat! Straße café the end");
+		Generator frozen = new Generator();
+		frozen.createLibraryFromFile(path);
+		frozen.freeze();
+		Generator copied = new Generator();
+		copied.createLibraryFromFile(path);
+		copied.freezeOffHeap();
+		Path snapshot = tempDir.resolve("library.bin");
+		frozen.saveLibrary(snapshot.toString());
+		Generator mapped = new Generator();
+		mapped.loadLibraryOffHeap(snapshot.toString());
+		
+		assertTrue(copied.isOffHeap() && mapped.isOffHeap() && mapped.isFrozen());
+		assertTrue(copied.getOffHeapLibrary().getOffHeapBytes() > 0);
+		for (Generator offHeap : new Generator[] { copied, mapped }) {
+			for (String seed : new String[] { "the", "sat", "straße", "café", "end", "missing" }) {
+				assertEquals(frozen.generateText(seed, 10, "probable"), offHeap.generateText(seed, 10, "probable"));
+				assertEquals(frozen.generateText(seed, 25, "deterministic"), offHeap.generateText(seed, 25, "deterministic"));
+				assertEquals(Generator.generateText(frozen.getGraph(), seed, 40, GenerationMode.RANDOM, new Random(7)),
+						Generator.generateText(offHeap.getGraph(), seed, 40, GenerationMode.RANDOM, new Random(7)));
+			}
+		}
+		
+		// Saving the off-heap library writes the same snapshot
+		Path saved = tempDir.resolve("saved.bin");
+		mapped.saveLibrary(saved.toString());
+		assertEquals(-1, Files.mismatch(snapshot, saved));
+		
+		// Appending moves the library back onto the heap
+		copied.appendFromFile(writeCorpus("zebra"));
+		assertFalse(copied.isOffHeap());
+		assertEquals("end zebra", copied.generateText("end", 2, "deterministic"));
+	}
 	
+	@Test
+	void testSharedOffHeapLibraryOutlivesGenerator() throws IOException {
+		String path = writeCorpus("The cat sat on the mat. The dog sat on the cat!");
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(path);
+		Path snapshot = tempDir.resolve("shared.bin");
+		generator.saveLibrary(snapshot.toString());
+		String expected = generator.generateText("the", 10, "deterministic");
+		
+		// Replacing or pruning the library leaves the shared copies open
+		generator.loadLibraryOffHeap(snapshot.toString());
+		ConcurrentGenerator loaded = new ConcurrentGenerator(generator);
+		GenerationEngine engine = generator.createEngine();
+		generator.createLibraryFromFile(path);
+		generator.freezeOffHeap();
+		ConcurrentGenerator frozen = new ConcurrentGenerator(generator);
+		generator.pruneTransitions(2);
+		assertEquals(expected, loaded.generateText("the", 10, GenerationMode.DETERMINISTIC));
+		assertEquals(expected, frozen.generateText("the", 10, GenerationMode.DETERMINISTIC));
+		engine.generate("the", 10, GenerationMode.DETERMINISTIC);
+		assertEquals(expected, engine.toString());
+		
+		// A library nobody else retained is freed by close, and can't be read afterwards
+		OffHeapLibrary owned = generator.getOffHeapLibrary();
+		generator.close();
+		assertTrue(owned.isClosed());
+		assertThrows(IllegalStateException.class, () -> owned.getId("the"));
+		assertThrows(IllegalStateException.class, () -> owned.retain());
+		assertEquals(0, generator.getGraph().size());
+		
+		// Each sharer releases its own reference, and the last one frees the library
+		OffHeapLibrary first = (OffHeapLibrary) loaded.getLibrary();
+		loaded.close();
+		loaded.close();
+		assertFalse(first.isClosed());
+		engine.close();
+		assertTrue(first.isClosed());
+		frozen.close();
+		assertTrue(((OffHeapLibrary) frozen.getLibrary()).isClosed());
+		
+		OffHeapLibrary shared;
+		try (Generator closing = new Generator()) {
+			closing.loadLibraryOffHeap(snapshot.toString());
+			shared = closing.getOffHeapLibrary();
+			try (ConcurrentGenerator sharing = new ConcurrentGenerator(closing);
+					GenerationEngine sharingEngine = closing.createEngine()) {
+				closing.close();
+				assertEquals(expected, sharing.generateText("the", 10, GenerationMode.DETERMINISTIC));
+			}
+		}
+		assertTrue(shared.isClosed());
+		
+		// The last release frees a retained library
+		OffHeapLibrary mapped = OffHeapLibrary.map(snapshot);
+		mapped.retain();
+		mapped.close();
+		assertEquals(expected.split(" ")[1], mapped.getWord(mapped.getMostProbableNextWord(mapped.getId("the"))));
+		mapped.release();
+		assertTrue(mapped.isClosed());
+	}
 	
+	@Test
+	void testPrefixCompletionsByFrequency() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("then the there they the then them the a zebra"));
+		
+		assertEquals(List.of("the", "then", "them"), generator.getCompletions("TH", 3));
+		assertEquals(List.of("then", "them", "there", "they"), generator.getCompletions("the", 10).subList(1, 5));
+		assertEquals(List.of(), generator.getCompletions("x", 3));
+		assertEquals("the a", generator.generateFromPrefix("th", 2, "deterministic"));
+		assertEquals("there they", generator.generateFromPrefix("There", 2, "deterministic"));
+		assertEquals("Error: No word starting with 'x' found in the input text.",
+				generator.generateFromPrefix("x", 2, "deterministic"));
+		
+		// Frozen ids are alphabetical, the index must give the same answers
+		generator.freeze();
+		assertEquals(List.of("the", "then", "them"), generator.getCompletions("th", 3));
+		assertEquals(List.of("a", "them", "there"), generator.getCompletions("", 10).subList(2, 5));
+		assertEquals(5, generator.getPrefixIndex().countCompletions("th"));
+		
+		// The index follows words appended later
+		generator.appendFromFile(writeCorpus("they they they"));
+		assertEquals(List.of("they", "the"), generator.getCompletions("th", 2));
+		
+		// and a rebuild that adds no words at all
+		generator.createLibraryFromFileParallel(writeCorpus(""));
+		assertEquals(List.of(), generator.getCompletions("th", 2));
+	}
 	
+	@Test
+	void testEngineMatchesGeneratedText() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("The cat sat on the mat. The dog sat on the cat! Straße café the end"));
+		
+		for (int round = 0; round < 2; round++) {
+			GenerationEngine engine = generator.createEngine();
+			for (String seed : new String[] { "the", "sat", "café", "end", "missing" }) {
+				for (GenerationMode mode : new GenerationMode[] { GenerationMode.PROBABLE, GenerationMode.DETERMINISTIC }) {
+					engine.generate(seed, 25, mode);
+					assertEquals(generator.generateText(seed, 25, mode.toString().toLowerCase()), engine.toString());
+				}
+				engine = new GenerationEngine(generator.getGraph(), 42);
+				engine.generate(seed, 40, GenerationMode.RANDOM);
+				assertEquals(Generator.generateText(generator.getGraph(), seed, 40, GenerationMode.RANDOM,
+						new SplittableRandom(42)), engine.toString());
+			}
+			generator.freezeOffHeap();
+		}
+	}
 	
+	@Test
+	void testEngineDoesNotAllocatePerWord() throws IOException {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("the cat ate a bat the cat sat on the mat a cat sat"));
+		generator.freeze();
+		GenerationEngine engine = generator.createEngine();
+		
+		for (GenerationMode mode : GenerationMode.values()) {
+			// The first run grows the buffer, later runs reuse it
+			engine.generate("the", 100_000, mode);
+			long before = threads.getCurrentThreadAllocatedBytes();
+			engine.generate("the", 100_000, mode);
+			long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+			assertTrue(allocated < 1_000, mode + " allocated " + allocated + " bytes");
+		}
+	}
+	
+	@Test
+	void testSeededGenerationIsReproducible() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("the cat ate a bat the cat sat on the mat a cat sat on a bat"));
+		String text = generator.generateText("the", 200, "random", 12345L);
+		
+		assertEquals(text, generator.generateText("the", 200, "random", 12345L));
+		assertNotEquals(text, generator.generateText("the", 200, "random", 54321L));
+		
+		// Sharing the library freezes the Generator, and freezing renumbers the
+		// words, so the same seed gives other text that is just as reproducible
+		ConcurrentGenerator concurrent = new ConcurrentGenerator(generator);
+		assertTrue(generator.isFrozen());
+		String frozenText = generator.generateText("the", 200, "random", 12345L);
+		assertNotEquals(text, frozenText);
+		assertEquals(frozenText, generator.generateText("the", 200, "random", 12345L));
+		assertEquals(frozenText, concurrent.generateText("the", 200, GenerationMode.RANDOM, 12345L));
+	}
+	
+	@Test
+	void testChainsDoNotDependOnScheduling() throws IOException {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("the cat ate a bat the cat sat on the mat a cat sat on a bat"));
+		ConcurrentGenerator concurrent = new ConcurrentGenerator(generator);
+		
+		ForkJoinPool single = new ForkJoinPool(1);
+		ForkJoinPool several = new ForkJoinPool(4);
+		String chains;
+		try {
+			chains = concurrent.generateChains("the", 10_001, 8, 99L, single);
+			assertEquals(chains, concurrent.generateChains("THE", 10_001, 8, 99L, several));
+		} finally {
+			single.shutdown();
+			several.shutdown();
+		}
+		assertEquals(10_001, chains.split(" ").length);
+		
+		// A single chain is the seeded text of its one stream
+		assertEquals(Generator.generateText(generator.getGraph(), "the", 500, GenerationMode.RANDOM,
+				new SplittableRandom(99L).split()), concurrent.generateChains("the", 500, 1, 99L));
+		assertEquals("the", concurrent.generateChains("the", 0, 8, 99L));
+		assertThrows(IllegalArgumentException.class, () -> concurrent.generateChains("the", 10, 0, 99L));
+	}
+	
+	@Test
+	void testServerAnswersPipelinedQueriesInOrder() throws Exception {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("the cat ate a bat the cat sat on the mat"));
+		Generator other = new Generator();
+		other.createLibraryFromFile(writeCorpus("hello world"));
+		
+		try (GenerationServer server = new GenerationServer(2)) {
+			server.addLibrary("cats", new ConcurrentGenerator(generator));
+			server.addLibrary("hello", new ConcurrentGenerator(other));
+			
+			// More queries than the pipeline holds, answered in order
+			StringBuilder queries = new StringBuilder();
+			StringBuilder expected = new StringBuilder();
+			for (int k = 1; k <= 20; k++) {
+				queries.append("The ").append(k).append(" deterministic\n");
+				expected.append(generator.generateText("the", k, "deterministic")).append("\n");
+			}
+			queries.append("@hello hello 2 probable\n\n@dogs the 2 probable\nthe two probable\nmissing 2 random\n");
+			expected.append("world\nError: Library 'dogs' is not loaded.\n");
+			expected.append("Error: For input string: \"two\"\n");
+			expected.append("Error: Seed word 'missing' not found in the input text.\n");
+			
+			ByteArrayOutputStream answers = new ByteArrayOutputStream();
+			server.serve(new ByteArrayInputStream(queries.toString().getBytes(StandardCharsets.UTF_8)), answers);
+			assertEquals(expected.toString(), answers.toString(StandardCharsets.UTF_8));
+			
+			// The same protocol over a socket
+			int port = server.start(0);
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+				Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				out.write("the 3 probable\n@hello hello 2 deterministic\n");
+				out.flush();
+				assertEquals(generator.generateText("the", 3, "probable"), in.readLine());
+				assertEquals("hello world", in.readLine());
+			}
+		}
+	}
+	
+	@Test
+	void testServerRefusesLargeKAndClosesConnections() throws Exception {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("the cat ate a bat the cat sat on the mat"));
+		GenerationServer server = new GenerationServer(4, 10);
+		server.addLibrary("cats", new ConcurrentGenerator(generator));
+		assertEquals("Error: k must be at most 10 but was 2000000000.", server.answer("the 2000000000 random"));
+		assertEquals(generator.generateText("the", 10, "deterministic"), server.answer("the 10 deterministic"));
+		
+		int port = server.start(0);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			out.write("the 1 probable\n");
+			out.flush();
+			assertEquals("cat", in.readLine());
+			
+			// Closing drops the open connection instead of leaving it to fail on the pool
+			server.close();
+			assertEquals(null, in.readLine());
+		}
+		
+		// Queries that arrive after the server closed are not answered
+		ByteArrayOutputStream answers = new ByteArrayOutputStream();
+		server.serve(new ByteArrayInputStream("the 1 probable\n".getBytes(StandardCharsets.UTF_8)), answers);
+		assertEquals("", answers.toString(StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	void testServerRefusesConnectionsOverTheMaximum() throws Exception {
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus("the cat ate a bat the cat sat on the mat"));
+		GenerationServer server = new GenerationServer(4, 10, 1);
+		server.addLibrary("cats", new ConcurrentGenerator(generator));
+		
+		int port = server.start(0);
+		try (Socket first = new Socket(InetAddress.getLoopbackAddress(), port);
+				Socket second = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			Writer out = new OutputStreamWriter(first.getOutputStream(), StandardCharsets.UTF_8);
+			BufferedReader in = new BufferedReader(new InputStreamReader(first.getInputStream(), StandardCharsets.UTF_8));
+			out.write("the 1 probable\n");
+			out.flush();
+			assertEquals("cat", in.readLine());
+			
+			// The second client is told why and disconnected, the first is still served
+			BufferedReader refused = new BufferedReader(new InputStreamReader(second.getInputStream(), StandardCharsets.UTF_8));
+			assertEquals("Error: Too many connections.", refused.readLine());
+			assertEquals(null, refused.readLine());
+			out.write("the 1 probable\n");
+			out.flush();
+			assertEquals("cat", in.readLine());
+		} finally {
+			server.close();
+		}
+	}
+	
+	@Test
+	void testRegistryEvictsLeastRecentlyUsed() throws IOException {
+		String cats = writeCorpus("the cat ate a bat the cat sat on the mat");
+		String dogs = writeCorpus("the dog ate a bone the dog sat on the rug");
+		String birds = writeCorpus("the bird ate a worm the bird sat on the branch");
+		long size = ((FrozenLibrary) new LibraryRegistry(Long.MAX_VALUE).get(cats).getLibrary()).getMemoryFootprint();
+		assertTrue(size > 0);
+		
+		// Room for two libraries of about this size
+		LibraryRegistry registry = new LibraryRegistry(size * 5 / 2);
+		ConcurrentGenerator catLibrary = registry.get(cats);
+		registry.get(dogs);
+		assertSame(catLibrary, registry.get(cats));
+		registry.get(birds);
+		
+		assertTrue(registry.isLoaded(cats) && registry.isLoaded(birds));
+		assertFalse(registry.isLoaded(dogs));
+		assertEquals(1, registry.getEvictionCount());
+		assertTrue(registry.getUsedBytes() <= registry.getBudgetBytes());
+		assertEquals("the dog ate", registry.get(dogs).generateText("the", 3, GenerationMode.DETERMINISTIC));
+		assertEquals(4, registry.getLoadCount());
+		assertThrows(IOException.class, () -> registry.get(tempDir.resolve("missing.txt").toString()));
+	}
+	
+	@Test
+	void testRegistryLoadsOnceForConcurrentRequests() throws Exception {
+		String path = writeCorpus("the cat ate a bat the cat sat on the mat ".repeat(20_000));
+		LibraryRegistry registry = new LibraryRegistry(Long.MAX_VALUE);
+		
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		List<Future<ConcurrentGenerator>> results = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			results.add(threads.submit(() -> registry.get(path)));
+		}
+		for (Future<ConcurrentGenerator> result : results) {
+			assertSame(results.get(0).get(), result.get());
+		}
+		threads.shutdown();
+		assertEquals(1, registry.getLoadCount());
+	}
+	
+	@Test
+	void testBoundedIngestKeepsFrequentBigrams() throws IOException {
+		String path = writeCorpus("a b a b a b a b a b c d e f g");
+		Generator bounded = new Generator();
+		bounded.createLibraryFromFileBounded(path, 3, 1 << 10);
+		Generator pruned = new Generator();
+		pruned.createLibraryFromFile(path);
+		
+		// Every bigram that occurred once is dropped, the rest keep their counts
+		assertEquals(5, pruned.pruneTransitions(3));
+		for (Generator generator : new Generator[] { bounded, pruned }) {
+			WordGraph graph = generator.getGraph();
+			assertEquals(7, graph.size());
+			assertEquals(5, graph.getNextWordFrequency(graph.getId("a"), 0));
+			assertEquals(4, graph.getNextWordFrequency(graph.getId("b"), 0));
+			assertEquals(1, graph.getNextWordCount(graph.getId("b")));
+			assertEquals(0, graph.getNextWordCount(graph.getId("c")));
+			assertEquals("a b a b", generator.generateText("a", 4, "deterministic"));
+		}
+		
+		// Pruning a frozen library leaves it frozen
+		pruned.freeze();
+		assertEquals(1, pruned.pruneTransitions(5));
+		assertTrue(pruned.isFrozen());
+		assertEquals("", pruned.generateText("b", 3, "probable"));
+	}
+	
+	@Test
+	void testPipelinedBuildMatchesSequentialBuild() throws IOException {
+		// Large enough to be cut into several blocks
+		StringBuilder text = new StringBuilder();
+		String[] words = { "the", "cat", "sat", "on", "mat", "Straße", "café", "a", "bat", "dog" };
+		for (int i = 0; i < 600_000; i++) {
+			text.append(words[(i * 7 + i / 3 + i / 11) % words.length]).append(i % 5 == 0 ? ". " : " ");
+		}
+		String path = writeCorpus(text.toString());
+		
+		Generator sequential = new Generator();
+		sequential.createLibraryFromFile(path);
+		Generator pipelined = new Generator();
+		List<PipelineStageStats> stats = pipelined.createLibraryFromFilePipelined(path, 3, 2);
+		
+		// Same ids and the same counts in the same order, so even random text matches
+		for (String word : words) {
+			assertEquals(sequential.generateText(word, 50, "random", 7), pipelined.generateText(word, 50, "random", 7));
+		}
+		Path sequentialSnapshot = tempDir.resolve("sequential.bin");
+		Path pipelinedSnapshot = tempDir.resolve("pipelined.bin");
+		sequential.saveLibrary(sequentialSnapshot.toString());
+		pipelined.saveLibrary(pipelinedSnapshot.toString());
+		assertEquals(-1, Files.mismatch(sequentialSnapshot, pipelinedSnapshot));
+		
+		assertEquals(4, stats.size());
+		assertEquals(Files.size(Path.of(path)), stats.get(0).getItems());
+		assertEquals(600_000, stats.get(1).getItems());
+		assertEquals(600_000, stats.get(2).getItems());
+		assertEquals(599_999, stats.get(3).getItems());
+	}
+	
+	@Test
+	void testCompressedRowsMatchDecodedRows() throws IOException {
+		// "the" is followed by more words than a compressed row holds, the rest by fewer
+		StringBuilder text = new StringBuilder();
+		Random random = new Random(3);
+		for (int i = 0; i < 2000; i++) {
+			int word = (int) Math.sqrt(random.nextInt(400));
+			text.append("the w").append(word).append(" x").append(random.nextInt(word % 5 + 1)).append(' ');
+		}
+		Generator generator = new Generator();
+		generator.createLibraryFromFile(writeCorpus(text.toString()));
+		generator.freeze();
+		FrozenLibrary frozen = generator.getFrozenLibrary();
+		assertTrue(frozen.getNextWordCount(frozen.getId("the")) > FrozenLibrary.MAX_COMPRESSED_DEGREE);
+		
+		// The off-heap copy keeps every row decoded
+		try (OffHeapLibrary decoded = OffHeapLibrary.of(frozen)) {
+			for (int id = 0; id < frozen.size(); id++) {
+				assertEquals(decoded.getNextWordCount(id), frozen.getNextWordCount(id));
+				assertEquals(decoded.getMostProbableNextWord(id), frozen.getMostProbableNextWord(id));
+				for (int rank = 0; rank < frozen.getNextWordCount(id); rank++) {
+					assertEquals(decoded.getNextWord(id, rank), frozen.getNextWord(id, rank));
+					assertEquals(decoded.getNextWordFrequency(id, rank), frozen.getNextWordFrequency(id, rank));
+				}
+				
+				// The same draws pick the same words
+				SplittableRandom expected = new SplittableRandom(id);
+				SplittableRandom actual = new SplittableRandom(id);
+				for (int draw = 0; draw < 50 && frozen.getNextWordCount(id) > 0; draw++) {
+					assertEquals(decoded.getRandomNextWord(id, expected), frozen.getRandomNextWord(id, actual));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Writes the given text to a file in the temporary directory.
+	 * 
+	 * @return the path of the file
+	 */
+	private String writeCorpus(String text) throws IOException {
+		Path file = Files.createTempFile(tempDir, "corpus", ".txt");
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+		return file.toString();
+	}
 
 }
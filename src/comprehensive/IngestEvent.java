@@ -0,0 +1,34 @@
+package comprehensive;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event committed every time text is added to a library or a snapshot is
+ * loaded. Like every JFR event it costs next to nothing unless a recording
+ * has it enabled.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/13/25
+ */
+@Name("comprehensive.Ingest")
+@Label("Library Ingest")
+@Category("Text Generator")
+@Description("Text added to a library, or a library loaded from a snapshot")
+class IngestEvent extends jdk.jfr.Event {
+	@Label("Source")
+	String source;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	@Label("Tokens")
+	long tokens;
+
+	@Label("Vocabulary Size")
+	int vocabularySize;
+}
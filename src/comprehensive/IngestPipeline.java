@@ -0,0 +1,477 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class builds a Generator library from a file in four stages that run at
+ * the same time, each on its own threads:
+ *
+ * 1. read - one thread reads the file in blocks that end on an ASCII
+ * delimiter, so no word or UTF-8 character is split between two blocks.
+ *
+ * 2. tokenize - several threads split blocks into words, and number the
+ * distinct words of every block in the order they first appear in it.
+ *
+ * 3. intern - one thread takes the blocks back in file order, turns the
+ * numbers of every block into library ids, counts the occurrences of every
+ * word and hands every bigram to the counter that owns its first word.
+ *
+ * 4. count - several threads count the bigrams; counter i owns the words whose
+ * id modulo the number of counters is i, so no two counters touch one word.
+ *
+ * Stages hand batches of work to each other through bounded SpscRings: a block
+ * of bytes, a block of word numbers, or a batch of id pairs. Blocks are dealt to
+ * the tokenizers in turn and taken back in the same turn, which keeps them in
+ * file order without any other bookkeeping. Ids are handed out in file order
+ * and every word sees its bigrams in file order, so the library is the same
+ * one {@link Generator#createLibraryFromFile(String)} builds.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/17/25
+ */
+class IngestPipeline {
+	private static final int BLOCK_SIZE = 1 << 20;
+	// Blocks in flight between the reader and one tokenizer, and between that
+	// tokenizer and the interner
+	private static final int BLOCK_RING_CAPACITY = 4;
+	private static final int PAIR_BATCH_SIZE = 1 << 14;
+	private static final int PAIR_RING_CAPACITY = 16;
+
+	// Sent after the last batch of each ring
+	private static final Block END_BLOCK = new Block(new byte[0], 0);
+	private static final TokenBlock END_TOKENS = new TokenBlock(0);
+	private static final int[] END_PAIRS = new int[0];
+
+	private final Path file;
+	private final int tokenizerCount;
+	private final int counterCount;
+	private final List<SpscRing<Block>> blocks = new ArrayList<SpscRing<Block>>();
+	private final List<SpscRing<TokenBlock>> tokenBlocks = new ArrayList<SpscRing<TokenBlock>>();
+	private final List<SpscRing<int[]>> pairs = new ArrayList<SpscRing<int[]>>();
+	// The first exception thrown by any stage, which stops all of them
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	private final Clock readClock = new Clock();
+	private final Clock[] tokenizeClocks;
+	private final Clock internClock = new Clock();
+	private final Clock[] countClocks;
+
+	// Built by the intern stage
+	private final Vocabulary vocabulary = new Vocabulary();
+	private final ArrayList<WordEntry> library = new ArrayList<WordEntry>();
+	private int previousWord = -1;
+	// Built by the count stage: counts[i][id / counterCount] are the adjacent
+	// words of a word owned by counter i
+	private final IntCountMap[][] counts;
+
+	/**
+	 * Creates a pipeline for a file.
+	 *
+	 * @param file           - the text file to process
+	 * @param tokenizerCount - number of tokenize threads
+	 * @param counterCount   - number of count threads
+	 */
+	IngestPipeline(Path file, int tokenizerCount, int counterCount) {
+		if (tokenizerCount < 1 || counterCount < 1) {
+			throw new IllegalArgumentException(
+					"Every stage needs at least 1 thread: " + tokenizerCount + ", " + counterCount);
+		}
+		this.file = file;
+		this.tokenizerCount = tokenizerCount;
+		this.counterCount = counterCount;
+		this.tokenizeClocks = new Clock[tokenizerCount];
+		this.countClocks = new Clock[counterCount];
+		this.counts = new IntCountMap[counterCount][];
+		for (int i = 0; i < tokenizerCount; i++) {
+			blocks.add(new SpscRing<Block>(BLOCK_RING_CAPACITY));
+			tokenBlocks.add(new SpscRing<TokenBlock>(BLOCK_RING_CAPACITY));
+			tokenizeClocks[i] = new Clock();
+		}
+		for (int i = 0; i < counterCount; i++) {
+			pairs.add(new SpscRing<int[]>(PAIR_RING_CAPACITY));
+			countClocks[i] = new Clock();
+		}
+	}
+
+	/**
+	 * Runs every stage to the end of the file.
+	 *
+	 * @return a Generator holding the library of the file
+	 * @throws IOException If there's an error reading the file
+	 */
+	Generator build() throws IOException {
+		List<Thread> threads = new ArrayList<Thread>();
+		threads.add(start("ingest-read", readClock, this::read));
+		for (int i = 0; i < tokenizerCount; i++) {
+			int index = i;
+			threads.add(start("ingest-tokenize-" + i, tokenizeClocks[i], () -> tokenize(index)));
+		}
+		threads.add(start("ingest-intern", internClock, this::intern));
+		for (int i = 0; i < counterCount; i++) {
+			int index = i;
+			threads.add(start("ingest-count-" + i, countClocks[i], () -> count(index)));
+		}
+
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			// Stops the stages, which are daemon threads and are left to finish
+			failure.compareAndSet(null, e);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while building a library");
+		}
+
+		Throwable error = failure.get();
+		if (error instanceof IOException) {
+			throw (IOException) error;
+		} else if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error != null) {
+			throw (Error) error;
+		}
+
+		// Hands the adjacent words of every word from its counter to its entry
+		for (WordEntry entry : library) {
+			IntCountMap[] owned = counts[entry.getId() % counterCount];
+			int row = entry.getId() / counterCount;
+			if (row < owned.length && owned[row] != null) {
+				entry.setAdjacentWords(owned[row]);
+			}
+		}
+		return new Generator(vocabulary, library, previousWord);
+	}
+
+	/**
+	 * Get the number of bytes read.
+	 *
+	 * @return the number of bytes
+	 */
+	long getBytes() {
+		return readClock.items;
+	}
+
+	/**
+	 * Get the number of words read.
+	 *
+	 * @return the number of words
+	 */
+	long getTokenCount() {
+		return internClock.items;
+	}
+
+	/**
+	 * Get what every stage did, in pipeline order. Only valid once the pipeline
+	 * has been built.
+	 *
+	 * @return the stats of the read, tokenize, intern and count stages
+	 */
+	List<PipelineStageStats> getStats() {
+		List<PipelineStageStats> stats = new ArrayList<PipelineStageStats>();
+		stats.add(stageStats("read", "bytes", readClock));
+		stats.add(stageStats("tokenize", "tokens", tokenizeClocks));
+		stats.add(stageStats("intern", "tokens", internClock));
+		stats.add(stageStats("count", "bigrams", countClocks));
+		return stats;
+	}
+
+	private static PipelineStageStats stageStats(String name, String unit, Clock... clocks) {
+		long items = 0;
+		long busyNanos = 0;
+		long waitNanos = 0;
+		for (Clock clock : clocks) {
+			items += clock.items;
+			busyNanos += clock.totalNanos - clock.waitNanos;
+			waitNanos += clock.waitNanos;
+		}
+		return new PipelineStageStats(name, unit, clocks.length, items, busyNanos, waitNanos);
+	}
+
+	/**
+	 * Starts the thread of one stage. The first exception thrown by any stage is
+	 * kept, and makes every other stage give up the next time it waits.
+	 */
+	private Thread start(String name, Clock clock, StageBody body) {
+		Thread thread = new Thread(() -> {
+			long start = System.nanoTime();
+			try {
+				body.run();
+			} catch (Aborted e) {
+				// Another stage failed first
+			} catch (IOException | RuntimeException | Error e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				clock.totalNanos = System.nanoTime() - start;
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * The read stage: cuts the file into blocks after their last delimiter, and
+	 * deals them to the tokenizers in turn.
+	 */
+	private void read() throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			byte[] block = new byte[BLOCK_SIZE];
+			int length = 0;
+			int next = 0;
+			while (true) {
+				int read = channel.read(ByteBuffer.wrap(block, length, block.length - length));
+				if (read == -1) {
+					break;
+				}
+				length += read;
+				readClock.items += read;
+				if (length < block.length) {
+					continue;
+				}
+
+				int end = length;
+				while (end > 0 && !WordTokenizer.isAsciiDelimiter(block[end - 1])) {
+					end--;
+				}
+				if (end == 0) {
+					// One word fills the whole block
+					block = Arrays.copyOf(block, block.length * 2);
+					continue;
+				}
+
+				// The bytes after the delimiter start the next block
+				byte[] rest = new byte[block.length];
+				System.arraycopy(block, end, rest, 0, length - end);
+				put(blocks.get(next), new Block(block, end), readClock);
+				next = (next + 1) % tokenizerCount;
+				block = rest;
+				length -= end;
+			}
+			if (length > 0) {
+				put(blocks.get(next), new Block(block, length), readClock);
+			}
+		}
+		for (SpscRing<Block> ring : blocks) {
+			put(ring, END_BLOCK, readClock);
+		}
+	}
+
+	/**
+	 * The tokenize stage of one tokenizer: numbers the words of its blocks.
+	 */
+	private void tokenize(int index) {
+		Clock clock = tokenizeClocks[index];
+		WordTokenizer tokenizer = new WordTokenizer();
+		for (Block block = take(blocks.get(index), clock); block != END_BLOCK; block = take(blocks.get(index), clock)) {
+			TokenBlock tokens = new TokenBlock(block.length / 4);
+			tokenizer.feed(ByteBuffer.wrap(block.bytes, 0, block.length), tokens);
+			tokenizer.finish(tokens);
+			clock.items += tokens.count;
+			put(tokenBlocks.get(index), tokens, clock);
+		}
+		put(tokenBlocks.get(index), END_TOKENS, clock);
+	}
+
+	/**
+	 * The intern stage: takes the blocks back in file order, gives their words
+	 * library ids and hands out their bigrams.
+	 */
+	private void intern() {
+		int[][] batches = new int[counterCount][];
+		int[] batchSizes = new int[counterCount];
+		for (int i = 0; i < counterCount; i++) {
+			batches[i] = new int[2 * PAIR_BATCH_SIZE];
+		}
+		int[] ids = new int[0];
+		int[] occurrences = new int[0];
+
+		for (int next = 0;; next = (next + 1) % tokenizerCount) {
+			TokenBlock tokens = take(tokenBlocks.get(next), internClock);
+			if (tokens == END_TOKENS) {
+				break;
+			}
+
+			// Interned in the order they first appear, so new ids are in file order
+			int distinct = tokens.words.size();
+			if (ids.length < distinct) {
+				ids = new int[distinct];
+				occurrences = new int[distinct];
+			}
+			for (int local = 0; local < distinct; local++) {
+				String word = tokens.words.getWord(local);
+				int id = vocabulary.intern(word);
+				if (id == library.size()) {
+					library.add(new WordEntry(id, word));
+				}
+				ids[local] = id;
+				occurrences[local] = 0;
+			}
+
+			for (int i = 0; i < tokens.count; i++) {
+				int local = tokens.ids[i];
+				int id = ids[local];
+				occurrences[local]++;
+				if (previousWord != -1) {
+					// Route the bigram to the counter owning its first word
+					int counter = previousWord % counterCount;
+					int[] batch = batches[counter];
+					int size = batchSizes[counter];
+					batch[2 * size] = previousWord;
+					batch[2 * size + 1] = id;
+					if (++size == PAIR_BATCH_SIZE) {
+						put(pairs.get(counter), batch, internClock);
+						batches[counter] = new int[2 * PAIR_BATCH_SIZE];
+						size = 0;
+					}
+					batchSizes[counter] = size;
+				}
+				previousWord = id;
+			}
+			for (int local = 0; local < distinct; local++) {
+				library.get(ids[local]).addOccurrences(occurrences[local]);
+			}
+			internClock.items += tokens.count;
+		}
+
+		for (int i = 0; i < counterCount; i++) {
+			if (batchSizes[i] > 0) {
+				put(pairs.get(i), Arrays.copyOf(batches[i], 2 * batchSizes[i]), internClock);
+			}
+			put(pairs.get(i), END_PAIRS, internClock);
+		}
+	}
+
+	/**
+	 * The count stage of one counter: counts the bigrams of the words it owns.
+	 */
+	private void count(int index) {
+		Clock clock = countClocks[index];
+		IntCountMap[] owned = new IntCountMap[16];
+		for (int[] batch = take(pairs.get(index), clock); batch != END_PAIRS; batch = take(pairs.get(index), clock)) {
+			for (int i = 0; i < batch.length; i += 2) {
+				int row = batch[i] / counterCount;
+				if (row >= owned.length) {
+					owned = Arrays.copyOf(owned, Math.max(row + 1, owned.length * 2));
+				}
+				if (owned[row] == null) {
+					owned[row] = new IntCountMap();
+				}
+				owned[row].add(batch[i + 1], 1);
+			}
+			clock.items += batch.length / 2;
+		}
+		counts[index] = owned;
+	}
+
+	/**
+	 * Hands a batch to the next stage, waiting while its ring is full.
+	 */
+	private <T> void put(SpscRing<T> ring, T batch, Clock clock) {
+		if (ring.offer(batch)) {
+			return;
+		}
+		long start = System.nanoTime();
+		for (int attempt = 0; !ring.offer(batch); attempt++) {
+			checkFailure();
+			SpscRing.idle(attempt);
+		}
+		clock.waitNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Takes the next batch from the previous stage, waiting while its ring is
+	 * empty.
+	 */
+	private <T> T take(SpscRing<T> ring, Clock clock) {
+		T batch = ring.poll();
+		if (batch != null) {
+			return batch;
+		}
+		long start = System.nanoTime();
+		for (int attempt = 0; (batch = ring.poll()) == null; attempt++) {
+			checkFailure();
+			SpscRing.idle(attempt);
+		}
+		clock.waitNanos += System.nanoTime() - start;
+		return batch;
+	}
+
+	private void checkFailure() {
+		if (failure.get() != null) {
+			throw new Aborted();
+		}
+	}
+
+	/**
+	 * The work of one stage thread.
+	 */
+	private interface StageBody {
+		void run() throws IOException;
+	}
+
+	/**
+	 * Thrown inside a stage to stop it once another stage has failed.
+	 */
+	private static class Aborted extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Aborted() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * What one stage thread did. Written by that thread only, and read once it
+	 * has finished.
+	 */
+	private static class Clock {
+		private long items;
+		private long waitNanos;
+		private long totalNanos;
+	}
+
+	/**
+	 * A block of the file that ends on a delimiter, or at the end of the file.
+	 */
+	private static class Block {
+		private final byte[] bytes;
+		private final int length;
+
+		Block(byte[] bytes, int length) {
+			this.bytes = bytes;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * The words of one block, as numbers local to the block: the word of number n
+	 * is the n-th distinct word of the block.
+	 */
+	private static class TokenBlock implements WordTokenizer.TokenSink {
+		private final Vocabulary words = new Vocabulary();
+		private int[] ids;
+		private int count;
+
+		TokenBlock(int capacity) {
+			this.ids = new int[Math.max(16, capacity)];
+		}
+
+		@Override
+		public void acceptToken(char[] chars, int length) {
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+			}
+			ids[count++] = words.intern(chars, length);
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package comprehensive;
+
+import java.util.Arrays;
+
+/**
+ * A small open-addressing hash map from int keys to int counts. It replaces a
+ * {@code HashMap<String, Integer>} for the adjacent words of a WordEntry, so a
+ * bigram costs two ints instead of a hash node, a boxed Integer and a String
+ * reference.
+ *
+ * Entries are read back by slot: {@link #capacity()} gives the number of slots
+ * and {@link #keyAt(int)} returns {@link #EMPTY} for slots that are not in use.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 4/28/25
+ */
+public class IntCountMap {
+	public static final int EMPTY = -1;
+	// Shared by all empty maps, so a word with no adjacent words costs no table
+	private static final int[] NO_SLOTS = new int[0];
+
+	private int[] keys;
+	private int[] counts;
+	private int size;
+
+	/**
+	 * Creates an empty map. The table is only allocated when the first key is
+	 * added, and most words only have a few adjacent words, so it starts out
+	 * small.
+	 */
+	public IntCountMap() {
+		this.keys = NO_SLOTS;
+		this.counts = NO_SLOTS;
+		this.size = 0;
+	}
+
+	/**
+	 * Get the number of keys in this map.
+	 *
+	 * @return the number of keys
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether this map has no keys.
+	 *
+	 * @return true if the map is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Get the number of slots in this map, used to iterate over its entries.
+	 *
+	 * @return the number of slots
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Get the key stored in the given slot.
+	 *
+	 * @param slot - the slot to read
+	 * @return the key, or {@link #EMPTY} if the slot is unused
+	 */
+	public int keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * Get the count stored in the given slot.
+	 *
+	 * @param slot - the slot to read
+	 * @return the count of the key in that slot
+	 */
+	public int countAt(int slot) {
+		return counts[slot];
+	}
+
+	/**
+	 * Get the count of a key.
+	 *
+	 * @param key - a non-negative key
+	 * @return the count of the key, or 0 if it is not in the map
+	 */
+	public int get(int key) {
+		if (size == 0) {
+			return 0;
+		}
+		int mask = keys.length - 1;
+		for (int slot = mix(key) & mask;; slot = (slot + 1) & mask) {
+			int current = keys[slot];
+			if (current == key) {
+				return counts[slot];
+			}
+			if (current == EMPTY) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Adds the given amount to the count of a key, inserting the key if it is not
+	 * in the map yet.
+	 *
+	 * @param key    - a non-negative key
+	 * @param amount - amount to add to the count
+	 */
+	public void add(int key, int amount) {
+		if (keys.length == 0) {
+			rehash(4);
+		}
+		int mask = keys.length - 1;
+		int slot = mix(key) & mask;
+		while (true) {
+			int current = keys[slot];
+			if (current == key) {
+				counts[slot] += amount;
+				return;
+			}
+			if (current == EMPTY) {
+				break;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		counts[slot] = amount;
+		size++;
+
+		// Grow once the table is three quarters full
+		if (size * 4 > keys.length * 3) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	/**
+	 * Removes every key whose count is below a minimum, and shrinks the table to
+	 * fit the keys that are left.
+	 *
+	 * @param minCount - smallest count that is kept
+	 * @return the number of keys removed
+	 */
+	public int removeBelow(int minCount) {
+		int removed = 0;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != EMPTY && counts[slot] < minCount) {
+				keys[slot] = EMPTY;
+				removed++;
+			}
+		}
+		if (removed == 0) {
+			return 0;
+		}
+
+		size -= removed;
+		if (size == 0) {
+			keys = NO_SLOTS;
+			counts = NO_SLOTS;
+			return removed;
+		}
+		int capacity = 4;
+		while (size * 4 > capacity * 3) {
+			capacity *= 2;
+		}
+		// Rebuilding also closes the gaps the removed keys left in their probe runs
+		rehash(capacity);
+		return removed;
+	}
+
+	/**
+	 * Rebuilds the table with the given number of slots.
+	 */
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new int[capacity];
+		counts = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = mix(oldKeys[i]) & mask;
+				while (keys[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Scrambles sequential ids so neighbouring keys do not cluster.
+	 */
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,129 @@
+package comprehensive;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values (such as latencies in nanoseconds) with a
+ * fixed relative precision, in the style of HdrHistogram. Values below 64 get a
+ * bucket each; above that, every power of two is split into 32 buckets, so a
+ * value is off by at most 1/32 (about 3%) whatever its size. The whole range of
+ * a long fits in under 2000 buckets, and recording a value is a few bit
+ * operations and one atomic increment, so any number of threads can record at
+ * once without locking.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/13/25
+ */
+public class LatencyHistogram {
+	// Every power of two is split into 2^SUB_BUCKET_BITS buckets
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = bucketOf(Long.MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalValue = new AtomicLong();
+	private final AtomicLong maxValue = new AtomicLong();
+
+	/**
+	 * Records one value.
+	 *
+	 * @param value - the value; negative values are recorded as 0
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+		counts.incrementAndGet(bucketOf(value));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(value);
+		maxValue.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Get the number of recorded values.
+	 *
+	 * @return the count
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Get the largest recorded value.
+	 *
+	 * @return the largest value, or 0 if nothing was recorded
+	 */
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	/**
+	 * Get the mean of the recorded values.
+	 *
+	 * @return the mean, or 0 if nothing was recorded
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalValue.get() / count;
+	}
+
+	/**
+	 * Get the value that the given percentage of recorded values are at or
+	 * below. The answer is the largest value of the bucket it falls in, so it is
+	 * never lower than the exact percentile and at most about 3% higher.
+	 *
+	 * @param percentile - percentage from 0 to 100
+	 * @return the value at the percentile, or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+			seen += counts.get(bucket);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(bucket), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Removes all recorded values.
+	 */
+	public void reset() {
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+			counts.set(bucket, 0);
+		}
+		totalCount.set(0);
+		totalValue.set(0);
+		maxValue.set(0);
+	}
+
+	/**
+	 * Finds the bucket of a value.
+	 */
+	static int bucketOf(long value) {
+		if (value < 2 * SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		// The top SUB_BUCKET_BITS + 1 bits of the value pick the bucket
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	/**
+	 * Get the largest value that falls into a bucket.
+	 */
+	static long highestValueOf(int bucket) {
+		if (bucket < 2 * SUB_BUCKET_COUNT) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKET_COUNT - 1;
+		long subBucket = bucket - shift * SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
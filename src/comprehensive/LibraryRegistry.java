@@ -0,0 +1,231 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Loads frozen libraries on demand, one per corpus, and keeps as many of them
+ * as fit in a memory budget. Each corpus is a text file or a snapshot saved by
+ * {@link Generator#saveLibrary(String)}, and is identified by its path.
+ *
+ * When a newly loaded library takes the libraries over the budget, the least
+ * recently used ones are dropped until they fit again, except the new one
+ * itself. The size of a library is its
+ * {@link FrozenLibrary#getMemoryFootprint()}. A dropped library stays usable by
+ * anyone still holding it, and is loaded again the next time it is asked for.
+ *
+ * Loading is single-flight: when several threads ask for a corpus that is not
+ * loaded, one of them loads it and the others wait for that library, so a
+ * corpus is never built twice at once.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/16/25
+ */
+public class LibraryRegistry {
+	private final long budgetBytes;
+
+	// Guards every field below
+	private final Object lock = new Object();
+	// Loaded libraries in access order, least recently used first
+	private final LinkedHashMap<String, Loaded> loaded = new LinkedHashMap<String, Loaded>(16, 0.75f, true);
+	// Loads that are running, which other requests for the same corpus wait for
+	private final HashMap<String, CompletableFuture<ConcurrentGenerator>> loading =
+			new HashMap<String, CompletableFuture<ConcurrentGenerator>>();
+	private long usedBytes;
+	private long loadCount;
+	private long evictionCount;
+
+	/**
+	 * Creates an empty registry.
+	 *
+	 * @param budgetBytes - heap memory the loaded libraries may take together
+	 */
+	public LibraryRegistry(long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+	}
+
+	/**
+	 * Get the library of a corpus, loading it if it is not loaded.
+	 *
+	 * @param filePath - path of a text file or a snapshot
+	 * @return the library, shared by every caller
+	 * @throws IOException If the corpus can't be read
+	 */
+	public ConcurrentGenerator get(String filePath) throws IOException {
+		String key = Paths.get(filePath).toAbsolutePath().normalize().toString();
+
+		CompletableFuture<ConcurrentGenerator> pending;
+		synchronized (lock) {
+			Loaded library = loaded.get(key);
+			if (library != null) {
+				return library.generator;
+			}
+
+			// Wait for a load that is already running
+			pending = loading.get(key);
+			if (pending == null) {
+				loading.put(key, new CompletableFuture<ConcurrentGenerator>());
+			}
+		}
+		if (pending != null) {
+			return await(pending);
+		}
+
+		CompletableFuture<ConcurrentGenerator> result;
+		try {
+			Generator generator = load(Paths.get(key));
+			long bytes = generator.getFrozenLibrary().getMemoryFootprint();
+			ConcurrentGenerator library = new ConcurrentGenerator(generator);
+			synchronized (lock) {
+				result = loading.remove(key);
+				loaded.put(key, new Loaded(library, bytes));
+				usedBytes += bytes;
+				loadCount++;
+				evict();
+			}
+			result.complete(library);
+			return library;
+		} catch (IOException | RuntimeException | Error e) {
+			// Waiting threads get the same failure, and the next request tries again
+			synchronized (lock) {
+				result = loading.remove(key);
+			}
+			result.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Builds the library of a corpus and freezes it.
+	 */
+	private static Generator load(Path file) throws IOException {
+		Generator generator = new Generator();
+		if (LibrarySnapshot.isSnapshot(file)) {
+			generator.loadLibrary(file.toString());
+		} else {
+			generator.createLibraryFromFile(file.toString());
+			generator.freeze();
+		}
+		return generator;
+	}
+
+	/**
+	 * Waits for a library another thread is loading.
+	 */
+	private static ConcurrentGenerator await(CompletableFuture<ConcurrentGenerator> pending) throws IOException {
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a library to load", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw new IOException(cause.getMessage(), cause);
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw (RuntimeException) cause;
+		}
+	}
+
+	/**
+	 * Drops the least recently used libraries until the rest fit in the budget,
+	 * always keeping the most recently used one.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Loaded>> eldest = loaded.entrySet().iterator();
+		while (usedBytes > budgetBytes && loaded.size() > 1) {
+			usedBytes -= eldest.next().getValue().bytes;
+			eldest.remove();
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * Checks whether the library of a corpus is loaded, without loading it or
+	 * counting as a use.
+	 *
+	 * @param filePath - path of a text file or a snapshot
+	 * @return true if the library is loaded
+	 */
+	public boolean isLoaded(String filePath) {
+		synchronized (lock) {
+			return loaded.containsKey(Paths.get(filePath).toAbsolutePath().normalize().toString());
+		}
+	}
+
+	/**
+	 * Get the number of libraries loaded.
+	 *
+	 * @return the number of libraries
+	 */
+	public int size() {
+		synchronized (lock) {
+			return loaded.size();
+		}
+	}
+
+	/**
+	 * Get the estimated memory the loaded libraries take together.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getUsedBytes() {
+		synchronized (lock) {
+			return usedBytes;
+		}
+	}
+
+	/**
+	 * Get the memory the loaded libraries may take together.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	/**
+	 * Get the number of libraries loaded so far, counting every reload.
+	 *
+	 * @return the number of loads
+	 */
+	public long getLoadCount() {
+		synchronized (lock) {
+			return loadCount;
+		}
+	}
+
+	/**
+	 * Get the number of libraries dropped to stay under the budget.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		synchronized (lock) {
+			return evictionCount;
+		}
+	}
+
+	/**
+	 * A loaded library and its size.
+	 */
+	private static class Loaded {
+		private final ConcurrentGenerator generator;
+		private final long bytes;
+
+		Loaded(ConcurrentGenerator generator, long bytes) {
+			this.generator = generator;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,328 @@
+package comprehensive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class saves a Generator library to a compact binary file and loads it
+ * back, so the text does not have to be tokenized again on every run.
+ *
+ * The file is laid out as follows (all numbers are big-endian ints):
+ *
+ * <pre>
+ * magic "TGLB", version
+ * word count W, adjacent word entry count E, id of the last word (-1 if none)
+ * W + 1 string offsets, then the UTF-8 bytes of all words (padded to 4 bytes)
+ * W word frequencies
+ * W + 1 row offsets into the adjacent word arrays (compressed sparse rows)
+ * E adjacent word ids, E adjacent word frequencies
+ * </pre>
+ *
+ * This is the layout of a FrozenLibrary: word ids are alphabetical ranks and
+ * each row holds the adjacent words of one word, sorted the same way
+ * "probable" mode lists them.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/6/25
+ */
+class LibrarySnapshot {
+	static final int MAGIC = 0x54474C42;
+	static final int VERSION = 1;
+
+	private LibrarySnapshot() {
+	}
+
+	/**
+	 * Writes a library to a snapshot file.
+	 *
+	 * @param file     - file to write
+	 * @param library  - the library in its frozen form, on or off the heap
+	 * @param lastWord - id of the last word the library was built from, or -1
+	 * @throws IOException If there's an error writing the file
+	 */
+	static void write(Path file, WordGraph library, int lastWord) throws IOException {
+		int wordCount = library.size();
+		int entryCount = 0;
+		for (int id = 0; id < wordCount; id++) {
+			entryCount += library.getNextWordCount(id);
+		}
+
+		// Encode the words up front, since the header needs the table size
+		byte[][] encoded = new byte[wordCount][];
+		int stringBytes = 0;
+		for (int id = 0; id < wordCount; id++) {
+			encoded[id] = library.getWord(id).getBytes(StandardCharsets.UTF_8);
+			stringBytes += encoded[id].length;
+		}
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(wordCount);
+			out.writeInt(entryCount);
+			out.writeInt(lastWord);
+
+			// String table
+			int offset = 0;
+			for (int id = 0; id < wordCount; id++) {
+				out.writeInt(offset);
+				offset += encoded[id].length;
+			}
+			out.writeInt(offset);
+			for (byte[] word : encoded) {
+				out.write(word);
+			}
+			for (int i = stringBytes; i % 4 != 0; i++) {
+				out.writeByte(0);
+			}
+
+			// Word frequencies
+			for (int id = 0; id < wordCount; id++) {
+				out.writeInt(library.getFrequency(id));
+			}
+
+			// Row offsets, then every row's adjacent word ids and their frequencies
+			offset = 0;
+			for (int id = 0; id < wordCount; id++) {
+				out.writeInt(offset);
+				offset += library.getNextWordCount(id);
+			}
+			out.writeInt(offset);
+			for (int id = 0; id < wordCount; id++) {
+				for (int rank = 0; rank < library.getNextWordCount(id); rank++) {
+					out.writeInt(library.getNextWord(id, rank));
+				}
+			}
+			for (int id = 0; id < wordCount; id++) {
+				for (int rank = 0; rank < library.getNextWordCount(id); rank++) {
+					out.writeInt(library.getNextWordFrequency(id, rank));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a snapshot file into a new Generator holding a frozen library. The
+	 * file is memory-mapped and its arrays are copied out in bulk.
+	 *
+	 * @param file - snapshot file to read
+	 * @return a Generator holding the saved library
+	 * @throws IOException If the file can't be read or is not a snapshot
+	 */
+	static Generator read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			checkMappable(channel, file);
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			checkHeader(bytes, file);
+
+			int[] counts = readCounts(bytes, file);
+			int wordCount = counts[0];
+			int entryCount = counts[1];
+			int lastWord = counts[2];
+
+			// Decode the string table into one char array
+			int[] stringOffsets = readInts(bytes, wordCount + 1);
+			checkOffsets(IntBuffer.wrap(stringOffsets), wordCount, stringOffsets[wordCount], file);
+			checkRemaining(bytes, bodyBytes(wordCount, entryCount, stringOffsets[wordCount]), file);
+			byte[] stringBytes = new byte[stringOffsets[wordCount]];
+			bytes.get(stringBytes);
+			bytes.position(bytes.position() + (4 - stringBytes.length % 4) % 4);
+
+			char[] chars = new String(stringBytes, StandardCharsets.UTF_8).toCharArray();
+			int[] wordOffsets = new int[wordCount + 1];
+			for (int id = 0; id < wordCount; id++) {
+				int start = stringOffsets[id];
+				int length = stringOffsets[id + 1] - start;
+				wordOffsets[id + 1] = wordOffsets[id] + charLength(stringBytes, start, length);
+			}
+			if (wordOffsets[wordCount] != chars.length) {
+				throw new IOException("Corrupt string table in library snapshot: " + file);
+			}
+
+			int[] frequencies = readInts(bytes, wordCount);
+			int[] rowOffsets = readInts(bytes, wordCount + 1);
+			checkOffsets(IntBuffer.wrap(rowOffsets), wordCount, entryCount, file);
+			int[] nextWords = readInts(bytes, entryCount);
+			checkIds(IntBuffer.wrap(nextWords), wordCount, file);
+			int[] nextWordFrequencies = readInts(bytes, entryCount);
+			checkFrequencies(IntBuffer.wrap(frequencies), IntBuffer.wrap(rowOffsets), IntBuffer.wrap(nextWordFrequencies),
+					file);
+
+			return new Generator(new FrozenLibrary(chars, wordOffsets, frequencies, rowOffsets, nextWords,
+					nextWordFrequencies, lastWord));
+		}
+	}
+
+	/**
+	 * Counts the chars (UTF-16 code units) a run of valid UTF-8 bytes decodes to.
+	 */
+	private static int charLength(byte[] bytes, int start, int length) {
+		int chars = 0;
+		for (int i = start; i < start + length; i++) {
+			int b = bytes[i] & 0xFF;
+			if ((b & 0xC0) != 0x80) {
+				// Characters of four bytes need a surrogate pair
+				chars += b >= 0xF0 ? 2 : 1;
+			}
+		}
+		return chars;
+	}
+
+	/**
+	 * Copies the next {@code count} ints out of the buffer.
+	 */
+	private static int[] readInts(ByteBuffer bytes, int count) {
+		int[] ints = new int[count];
+		slice(bytes, count).asIntBuffer().get(ints);
+		return ints;
+	}
+
+	/**
+	 * Checks whether a file starts like a snapshot, without reading the rest.
+	 *
+	 * @param file - file to check
+	 * @return true if the file starts with the magic number of a snapshot
+	 * @throws IOException If the file can't be read
+	 */
+	static boolean isSnapshot(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			while (magic.hasRemaining() && channel.read(magic) != -1) {
+				// Keep reading until the magic number is in or the file ends
+			}
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Checks the magic number and version at the start of a snapshot.
+	 */
+	static void checkHeader(ByteBuffer bytes, Path file) throws IOException {
+		if (bytes.remaining() < 8 || bytes.getInt() != MAGIC) {
+			throw new IOException("Not a library snapshot: " + file);
+		}
+		int version = bytes.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported library snapshot version " + version + ": " + file);
+		}
+	}
+
+	/**
+	 * Checks that a file fits in one mapped buffer, which can't hold more than 2
+	 * GB.
+	 */
+	static void checkMappable(FileChannel channel, Path file) throws IOException {
+		if (channel.size() > Integer.MAX_VALUE) {
+			throw new IOException("Library snapshot too large to map (" + channel.size() + " bytes): " + file);
+		}
+	}
+
+	/**
+	 * Reads the word count, the entry count and the id of the last word that
+	 * follow the header, and checks that the file is long enough for the string
+	 * offsets that come next.
+	 *
+	 * @return the word count, the entry count and the last word
+	 * @throws IOException If a count is out of range or the file is too short
+	 */
+	static int[] readCounts(ByteBuffer bytes, Path file) throws IOException {
+		checkRemaining(bytes, 12, file);
+		int wordCount = bytes.getInt();
+		int entryCount = bytes.getInt();
+		int lastWord = bytes.getInt();
+		if (wordCount < 0 || entryCount < 0 || lastWord < -1 || lastWord >= wordCount) {
+			throw corrupt(file);
+		}
+		checkRemaining(bytes, 4L * (wordCount + 1), file);
+		return new int[] { wordCount, entryCount, lastWord };
+	}
+
+	/**
+	 * Get the number of bytes a snapshot holds after its string offsets: the
+	 * padded string table, the frequencies, the row offsets and the entries.
+	 */
+	static long bodyBytes(int wordCount, int entryCount, int stringBytes) {
+		return (long) stringBytes + (4 - stringBytes % 4) % 4 + 4L * wordCount + 4L * (wordCount + 1) + 8L * entryCount;
+	}
+
+	/**
+	 * Checks that the buffer holds at least the given number of bytes.
+	 */
+	static void checkRemaining(ByteBuffer bytes, long byteCount, Path file) throws IOException {
+		if (byteCount < 0 || byteCount > bytes.remaining()) {
+			throw corrupt(file);
+		}
+	}
+
+	/**
+	 * Checks that {@code count + 1} offsets start at 0, never go down, and end at
+	 * {@code end}.
+	 */
+	static void checkOffsets(IntBuffer offsets, int count, int end, Path file) throws IOException {
+		if (offsets.get(0) != 0 || offsets.get(count) != end) {
+			throw corrupt(file);
+		}
+		for (int i = 0; i < count; i++) {
+			if (offsets.get(i) > offsets.get(i + 1)) {
+				throw corrupt(file);
+			}
+		}
+	}
+
+	/**
+	 * Checks that every adjacent word id is the id of a word.
+	 */
+	static void checkIds(IntBuffer ids, int wordCount, Path file) throws IOException {
+		for (int i = 0; i < ids.limit(); i++) {
+			if (ids.get(i) < 0 || ids.get(i) >= wordCount) {
+				throw corrupt(file);
+			}
+		}
+	}
+
+	/**
+	 * Checks that every word and adjacent word frequency is positive and that the
+	 * frequencies of every row add up to at most Integer.MAX_VALUE, which random
+	 * sampling needs for its total.
+	 */
+	static void checkFrequencies(IntBuffer frequencies, IntBuffer rowOffsets, IntBuffer nextWordFrequencies,
+			Path file) throws IOException {
+		for (int id = 0; id < frequencies.limit(); id++) {
+			if (frequencies.get(id) <= 0) {
+				throw corrupt(file);
+			}
+			long total = 0;
+			for (int entry = rowOffsets.get(id); entry < rowOffsets.get(id + 1); entry++) {
+				int frequency = nextWordFrequencies.get(entry);
+				total += frequency;
+				if (frequency <= 0 || total > Integer.MAX_VALUE) {
+					throw corrupt(file);
+				}
+			}
+		}
+	}
+
+	private static IOException corrupt(Path file) {
+		return new IOException("Truncated or corrupt library snapshot: " + file);
+	}
+
+	/**
+	 * Returns a view of the next {@code intCount} ints of the buffer and moves
+	 * the buffer past them.
+	 */
+	static ByteBuffer slice(ByteBuffer bytes, int intCount) {
+		ByteBuffer slice = bytes.slice(bytes.position(), intCount * 4);
+		bytes.position(bytes.position() + intCount * 4);
+		return slice;
+	}
+}
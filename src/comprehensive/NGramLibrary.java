@@ -0,0 +1,306 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * A library that picks every word from the words before it, instead of only
+ * from the one word before it like Generator does. A library of order n counts
+ * which words follow every run of n - 1 words (a trigram library, of order 3,
+ * counts the words after every pair of words), and also every shorter run, so
+ * it can back off when a long context was never seen.
+ *
+ * Contexts are kept as runs of word ids in a ContextTable, so a context never
+ * becomes a String key, and the words following a context are counted there
+ * in primitive arrays instead of one object per context. They are sampled and
+ * ranked the same way Generator samples and ranks the words following a word.
+ *
+ * Generation works like {@link Generator#generateText(String, Integer, String)},
+ * except that:
+ * - the seed can be several words, which become the first context;
+ * - the next word is picked from the longest context of the last words that
+ * has been seen, backing off to shorter contexts before restarting from the
+ * seed, which only happens when the last word has no adjacent words at all.
+ *
+ * A library of order 2 generates exactly what Generator generates.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/10/25
+ */
+public class NGramLibrary {
+	private final int order;
+	private Vocabulary vocabulary;
+	// Holds the contexts of 1 to order - 1 words
+	private ContextTable contexts;
+	// The last order - 1 words added, oldest first
+	private final int[] history;
+	private int historyLength;
+
+	/**
+	 * Creates an empty library.
+	 *
+	 * @param order - number of words in an n-gram, including the word that is
+	 *              picked; 2 gives the bigrams Generator uses
+	 */
+	public NGramLibrary(int order) {
+		if (order < 2) {
+			throw new IllegalArgumentException("Order must be at least 2: " + order);
+		}
+		this.order = order;
+		this.history = new int[order - 1];
+		clearLibrary();
+	}
+
+	/**
+	 * Get the order of this library.
+	 *
+	 * @return the number of words in an n-gram
+	 */
+	public int getOrder() {
+		return order;
+	}
+
+	/**
+	 * Get the number of distinct words.
+	 *
+	 * @return the number of words
+	 */
+	public int size() {
+		return vocabulary.size();
+	}
+
+	/**
+	 * Get the number of distinct contexts of a given length that have been
+	 * followed by a word.
+	 *
+	 * @param length - number of words in the contexts, from 1 to order - 1
+	 * @return the number of contexts
+	 */
+	public int getContextCount(int length) {
+		return contexts.size(length);
+	}
+
+	/**
+	 * Builds the library from a text file, replacing any existing library. The
+	 * file is split into words the same way as
+	 * {@link Generator#createLibraryFromFile(String)}.
+	 *
+	 * @param filePath Path to the text file to process
+	 * @throws IOException If there's an error reading the file
+	 */
+	public void createLibraryFromFile(String filePath) throws IOException {
+		clearLibrary();
+		appendFromFile(filePath);
+	}
+
+	/**
+	 * Adds the words of a text file to the existing library, as if the text came
+	 * right after the text the library was built from, so the n-grams across
+	 * the boundary are counted.
+	 *
+	 * @param filePath Path to the text file to add
+	 * @throws IOException If there's an error reading the file
+	 */
+	public void appendFromFile(String filePath) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			new WordTokenizer().feedAll(channel, this::addWord);
+		}
+	}
+
+	/**
+	 * Removes all words from the library.
+	 */
+	private void clearLibrary() {
+		vocabulary = new Vocabulary();
+		contexts = new ContextTable(order - 1);
+		historyLength = 0;
+	}
+
+	/**
+	 * Adds one word of the input to the library: it is counted as following
+	 * every context that ends with the previous word.
+	 *
+	 * @param chars  - buffer holding the lower-case word
+	 * @param length - number of chars of the word
+	 */
+	private void addWord(char[] chars, int length) {
+		int wordId = vocabulary.intern(chars, length);
+
+		for (int contextLength = 1; contextLength <= historyLength; contextLength++) {
+			int context = contexts.intern(history, historyLength - contextLength, contextLength);
+			contexts.addFollower(context, wordId);
+		}
+
+		historyLength = push(history, historyLength, wordId);
+	}
+
+	/**
+	 * Adds a word to the end of a history of at most order - 1 words, dropping
+	 * the oldest word if the history is full.
+	 *
+	 * @return the new length of the history
+	 */
+	private static int push(int[] history, int historyLength, int wordId) {
+		if (historyLength == history.length) {
+			System.arraycopy(history, 1, history, 0, historyLength - 1);
+			historyLength--;
+		}
+		history[historyLength] = wordId;
+		return historyLength + 1;
+	}
+
+	/**
+	 * Finds the longest context at the end of a history that has been followed
+	 * by a word.
+	 *
+	 * @return the index of the context, or -1 if not even the last word has
+	 *         adjacent words
+	 */
+	private int findContext(int[] history, int historyLength) {
+		for (int length = Math.min(historyLength, order - 1); length > 0; length--) {
+			int context = contexts.find(history, historyLength - length, length);
+			if (context != -1) {
+				return context;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Generates text based on a given seed and given generation specifications.
+	 * See {@link Generator#generateText(String, Integer, String)} for the modes.
+	 *
+	 * @param seed - The seed word, or several words separated by spaces
+	 * @param k    - Number of words to be generated
+	 * @param mode - "random", "deterministic" or "probable"
+	 * @return the generated text, or an error message if a seed word is not in the library
+	 */
+	public String generateText(String seed, Integer k, String mode) {
+		return generateText(seed, k, GenerationMode.fromString(mode), ThreadLocalRandom.current());
+	}
+
+	/**
+	 * Generates text with the mode and the source of random numbers given
+	 * explicitly.
+	 *
+	 * @param seed   - The seed word, or several words separated by spaces
+	 * @param k      - Number of words to be generated
+	 * @param mode   - Mode of generation
+	 * @param random - Source of random numbers for "random" mode
+	 * @return the generated text, or an error message if a seed word is not in the library
+	 */
+	public String generateText(String seed, int k, GenerationMode mode, RandomGenerator random) {
+		// Convert the seed to lower-case word ids
+		String[] seedWords = seed.toLowerCase().trim().split("\\s+");
+		int[] seedIds = new int[seedWords.length];
+		for (int i = 0; i < seedWords.length; i++) {
+			seedIds[i] = vocabulary.getId(seedWords[i]);
+			if (seedIds[i] == -1) {
+				return "Error: Seed word '" + seedWords[i] + "' not found in the input text.";
+			}
+		}
+
+		if (mode == GenerationMode.PROBABLE) {
+			return getProbableWordsList(seedIds, k);
+		}
+		return getText(seedIds, k, mode == GenerationMode.DETERMINISTIC, random);
+	}
+
+	/**
+	 * Generates text in "random" or "deterministic" mode. Every word is picked
+	 * from the longest context of the words before it that has been seen.
+	 *
+	 * @param seedIds       - ids of the seed words
+	 * @param k             - Number of words to be generated
+	 * @param deterministic - true to always pick the most probable word
+	 * @param random        - Source of random numbers
+	 * @return the generated text
+	 */
+	private String getText(int[] seedIds, int k, boolean deterministic, RandomGenerator random) {
+		StringBuilder output = new StringBuilder();
+		appendSeed(output, seedIds);
+		int[] history = new int[order - 1];
+		int historyLength = seedHistory(history, seedIds);
+		int produced = seedIds.length;
+
+		// Main logic loop: generates words 1 at a time until there are k of them
+		while (produced < k) {
+			int context = findContext(history, historyLength);
+
+			// If even the last word has no adjacent words, restart from the seed
+			if (context == -1) {
+				output.append(" ");
+				appendSeed(output, seedIds);
+				produced += seedIds.length;
+				historyLength = seedHistory(history, seedIds);
+				context = findContext(history, historyLength);
+
+				// If even the seed has no adjacent words, we have to break
+				if (context == -1) {
+					break;
+				}
+			}
+
+			int nextWord = deterministic ? contexts.getMostProbableNextWord(context, vocabulary)
+					: contexts.getRandomNextWord(context, random);
+			output.append(" ").append(vocabulary.getWord(nextWord));
+			produced++;
+			historyLength = push(history, historyLength, nextWord);
+		}
+
+		return output.toString();
+	}
+
+	/**
+	 * Returns the first k words that are the most probable to come after the
+	 * longest context of the seed that has been seen.
+	 *
+	 * @param seedIds - ids of the seed words
+	 * @param k       - Number of words to display
+	 * @return String showing the words in descending order based on frequency
+	 */
+	private String getProbableWordsList(int[] seedIds, int k) {
+		int[] history = new int[order - 1];
+		int context = findContext(history, seedHistory(history, seedIds));
+		if (context == -1) {
+			return "";
+		}
+
+		int[] nextWords = contexts.getSortedNextWords(context, vocabulary);
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < Math.min(k, nextWords.length); i++) {
+			if (i > 0) {
+				result.append(" ");
+			}
+			result.append(vocabulary.getWord(nextWords[i]));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Fills a history with the last order - 1 words of the seed.
+	 *
+	 * @return the length of the history
+	 */
+	private static int seedHistory(int[] history, int[] seedIds) {
+		int length = Math.min(history.length, seedIds.length);
+		System.arraycopy(seedIds, seedIds.length - length, history, 0, length);
+		return length;
+	}
+
+	/**
+	 * Appends the seed words, separated by spaces.
+	 */
+	private void appendSeed(StringBuilder output, int[] seedIds) {
+		for (int i = 0; i < seedIds.length; i++) {
+			if (i > 0) {
+				output.append(" ");
+			}
+			output.append(vocabulary.getWord(seedIds[i]));
+		}
+	}
+}
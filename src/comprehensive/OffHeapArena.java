@@ -0,0 +1,132 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Hands out direct and memory-mapped ByteBuffers and frees all of them at once
+ * when it is closed, instead of waiting for the garbage collector to notice the
+ * buffers are unreachable. Memory outside the heap is never scanned or moved by
+ * the collector, so a large library kept in an arena does not make collection
+ * pauses any longer.
+ *
+ * Buffers are freed through the JDK's buffer cleaner when it can be reached,
+ * and otherwise simply released to the garbage collector. No buffer of a closed
+ * arena may be used again.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/14/25
+ */
+class OffHeapArena implements AutoCloseable {
+	// Frees a direct buffer right away, or null if the JDK does not allow it
+	private static final MethodHandle INVOKE_CLEANER = findCleaner();
+
+	private final ArrayList<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+	private long allocatedBytes;
+	private boolean closed;
+
+	/**
+	 * Allocates a direct buffer in native byte order.
+	 *
+	 * @param bytes - size of the buffer
+	 * @return the buffer
+	 */
+	synchronized ByteBuffer allocate(long bytes) {
+		checkOpen();
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Off-heap buffer too large: " + bytes + " bytes");
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+		buffers.add(buffer);
+		allocatedBytes += bytes;
+		return buffer;
+	}
+
+	/**
+	 * Maps a whole file read-only. The file stays mapped until the arena is closed.
+	 *
+	 * @param channel - channel of the file
+	 * @return the mapped file
+	 * @throws IOException If the file can't be mapped or is larger than 2 GB
+	 */
+	synchronized MappedByteBuffer map(FileChannel channel) throws IOException {
+		checkOpen();
+		if (channel.size() > Integer.MAX_VALUE) {
+			throw new IOException("File too large to map: " + channel.size() + " bytes");
+		}
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		buffers.add(buffer);
+		allocatedBytes += buffer.capacity();
+		return buffer;
+	}
+
+	/**
+	 * Get the total size of the buffers of this arena.
+	 *
+	 * @return the number of bytes allocated or mapped
+	 */
+	synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Frees every buffer of this arena. Closing an arena twice does nothing.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (ByteBuffer buffer : buffers) {
+			free(buffer);
+		}
+		buffers.clear();
+		allocatedBytes = 0;
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Arena is closed");
+		}
+	}
+
+	/**
+	 * Frees a direct or mapped buffer right away if the JDK allows it.
+	 */
+	private static void free(ByteBuffer buffer) {
+		if (INVOKE_CLEANER == null) {
+			return;
+		}
+		try {
+			INVOKE_CLEANER.invoke(buffer);
+		} catch (Throwable e) {
+			// The buffer is left to the garbage collector
+		}
+	}
+
+	/**
+	 * Looks up sun.misc.Unsafe.invokeCleaner(ByteBuffer), bound to the Unsafe
+	 * instance.
+	 */
+	private static MethodHandle findCleaner() {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			return MethodHandles.lookup()
+					.findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+					.bindTo(theUnsafe.get(null));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,454 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.random.RandomGenerator;
+
+/**
+ * A frozen library kept outside the Java heap. It has the same layout as a
+ * FrozenLibrary (alphabetical ids, compressed sparse rows in "probable" order and
+ * prebuilt alias tables), but every array lives in a direct or memory-mapped
+ * buffer of an OffHeapArena. The garbage collector never has to scan or copy
+ * the library, so collection pauses stay the same however large it is.
+ *
+ * A library mapped from a snapshot file ({@link #map(Path)}) reads its
+ * frequencies and adjacent words straight from the mapped file, so only the
+ * words and the alias tables take memory of their own.
+ *
+ * Generation never allocates on the heap per word: looking up, sampling and
+ * ranking adjacent words read the buffers directly, and words are copied into
+ * the output with {@link #appendWord(int, StringBuilder)} instead of being
+ * turned into Strings.
+ *
+ * The memory is reference counted. The library starts with one reference,
+ * which {@link #close()} releases; everyone else who keeps the library takes a
+ * reference of their own with {@link #retain()} and gives it back with
+ * {@link #release()}. The memory is freed when the last reference is released,
+ * and from then on every method that reads it throws an IllegalStateException
+ * instead of reading freed memory. That check only catches reads that start
+ * after the memory was freed, not a release that races a read already under
+ * way, so a reader must hold a reference for as long as it reads: the creator's
+ * own, or one it retained. A ConcurrentGenerator or a GenerationEngine retains
+ * the library it is given and releases it when it is closed. Like a
+ * FrozenLibrary the library never changes, so any number of threads can read it
+ * while they hold their references.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/14/25
+ */
+public class OffHeapLibrary implements WordGraph, AutoCloseable {
+	private final OffHeapArena arena;
+	private final CharBuffer chars;
+	private final IntBuffer wordOffsets;
+	private final IntBuffer frequencies;
+	private final IntBuffer rowOffsets;
+	private final IntBuffer nextWords;
+	private final IntBuffer nextWordFrequencies;
+	private final IntBuffer rowTotals;
+	private final IntBuffer thresholds;
+	private final IntBuffer aliases;
+	private final int size;
+	private final int lastWord;
+	// Starts with the reference of whoever created the library
+	private final AtomicInteger references = new AtomicInteger(1);
+	private final AtomicBoolean creatorReleased = new AtomicBoolean();
+	private volatile boolean freed;
+
+	/**
+	 * Creates a library from its buffers and builds the alias tables.
+	 *
+	 * @param arena               - arena holding all buffers
+	 * @param chars               - all words, alphabetically sorted, one after the other
+	 * @param wordOffsets         - start of every word in chars, plus the total length
+	 * @param frequencies         - frequency of every word
+	 * @param rowOffsets          - start of every word's row, plus the total entry count
+	 * @param nextWords           - adjacent word ids of every row, in "probable" order
+	 * @param nextWordFrequencies - frequency of every adjacent word entry
+	 * @param lastWord            - id of the last word the library was built from, or -1
+	 */
+	private OffHeapLibrary(OffHeapArena arena, CharBuffer chars, IntBuffer wordOffsets, IntBuffer frequencies,
+			IntBuffer rowOffsets, IntBuffer nextWords, IntBuffer nextWordFrequencies, int lastWord) {
+		this.arena = arena;
+		this.chars = chars;
+		this.wordOffsets = wordOffsets;
+		this.frequencies = frequencies;
+		this.rowOffsets = rowOffsets;
+		this.nextWords = nextWords;
+		this.nextWordFrequencies = nextWordFrequencies;
+		this.size = frequencies.capacity();
+		this.lastWord = lastWord;
+
+		int entryCount = nextWords.capacity();
+		this.rowTotals = arena.allocate(4L * size).asIntBuffer();
+		this.thresholds = arena.allocate(4L * entryCount).asIntBuffer();
+		this.aliases = arena.allocate(4L * entryCount).asIntBuffer();
+		buildAliasTables();
+	}
+
+	/**
+	 * Copies a frozen library off the heap.
+	 *
+	 * @param library - the library to copy
+	 * @return the off-heap copy
+	 */
+	public static OffHeapLibrary of(FrozenLibrary library) {
+		OffHeapArena arena = new OffHeapArena();
+		try {
+			int size = library.size();
+			int entryCount = library.getEntryCount();
+
+			long charCount = 0;
+			for (int id = 0; id < size; id++) {
+				charCount += library.getWord(id).length();
+			}
+			CharBuffer chars = arena.allocate(2 * charCount).asCharBuffer();
+			IntBuffer wordOffsets = arena.allocate(4L * (size + 1)).asIntBuffer();
+			IntBuffer frequencies = arena.allocate(4L * size).asIntBuffer();
+			IntBuffer rowOffsets = arena.allocate(4L * (size + 1)).asIntBuffer();
+			IntBuffer nextWords = arena.allocate(4L * entryCount).asIntBuffer();
+			IntBuffer nextWordFrequencies = arena.allocate(4L * entryCount).asIntBuffer();
+
+			int charOffset = 0;
+			int entry = 0;
+			for (int id = 0; id < size; id++) {
+				String word = library.getWord(id);
+				chars.put(charOffset, word.toCharArray());
+				wordOffsets.put(id, charOffset);
+				charOffset += word.length();
+
+				frequencies.put(id, library.getFrequency(id));
+				rowOffsets.put(id, entry);
+				for (int rank = 0; rank < library.getNextWordCount(id); rank++) {
+					nextWords.put(entry, library.getNextWord(id, rank));
+					nextWordFrequencies.put(entry, library.getNextWordFrequency(id, rank));
+					entry++;
+				}
+			}
+			wordOffsets.put(size, charOffset);
+			rowOffsets.put(size, entry);
+
+			return new OffHeapLibrary(arena, chars, wordOffsets, frequencies, rowOffsets, nextWords,
+					nextWordFrequencies, library.getLastWord());
+		} catch (RuntimeException e) {
+			arena.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps a snapshot saved by {@link Generator#saveLibrary(String)}. The word
+	 * frequencies and the adjacent words are read from the mapped file in place;
+	 * only the words are decoded into a buffer of their own. The file stays
+	 * mapped until the library is closed.
+	 *
+	 * @param file - snapshot file to map
+	 * @return the mapped library
+	 * @throws IOException If the file can't be read or is not a snapshot
+	 */
+	public static OffHeapLibrary map(Path file) throws IOException {
+		OffHeapArena arena = new OffHeapArena();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			LibrarySnapshot.checkMappable(channel, file);
+			ByteBuffer bytes = arena.map(channel);
+			LibrarySnapshot.checkHeader(bytes, file);
+
+			int[] counts = LibrarySnapshot.readCounts(bytes, file);
+			int wordCount = counts[0];
+			int entryCount = counts[1];
+			int lastWord = counts[2];
+
+			// Decode the string table into one char buffer
+			IntBuffer stringOffsets = LibrarySnapshot.slice(bytes, wordCount + 1).asIntBuffer();
+			int stringBytes = stringOffsets.get(wordCount);
+			LibrarySnapshot.checkOffsets(stringOffsets, wordCount, stringBytes, file);
+			LibrarySnapshot.checkRemaining(bytes, LibrarySnapshot.bodyBytes(wordCount, entryCount, stringBytes), file);
+			ByteBuffer strings = bytes.slice(bytes.position(), stringBytes);
+			bytes.position(bytes.position() + stringBytes + (4 - stringBytes % 4) % 4);
+
+			IntBuffer wordOffsets = arena.allocate(4L * (wordCount + 1)).asIntBuffer();
+			int charCount = 0;
+			for (int id = 0; id < wordCount; id++) {
+				wordOffsets.put(id, charCount);
+				charCount += charLength(strings, stringOffsets.get(id), stringOffsets.get(id + 1));
+			}
+			wordOffsets.put(wordCount, charCount);
+
+			CharBuffer chars = arena.allocate(2L * charCount).asCharBuffer();
+			CoderResult result = StandardCharsets.UTF_8.newDecoder().decode(strings, chars, true);
+			if (result.isError() || chars.position() != charCount) {
+				throw new IOException("Corrupt string table in library snapshot: " + file);
+			}
+			chars.clear();
+
+			// Everything else is used straight from the mapped file
+			IntBuffer frequencies = LibrarySnapshot.slice(bytes, wordCount).asIntBuffer();
+			IntBuffer rowOffsets = LibrarySnapshot.slice(bytes, wordCount + 1).asIntBuffer();
+			LibrarySnapshot.checkOffsets(rowOffsets, wordCount, entryCount, file);
+			IntBuffer nextWords = LibrarySnapshot.slice(bytes, entryCount).asIntBuffer();
+			LibrarySnapshot.checkIds(nextWords, wordCount, file);
+			IntBuffer nextWordFrequencies = LibrarySnapshot.slice(bytes, entryCount).asIntBuffer();
+			LibrarySnapshot.checkFrequencies(frequencies, rowOffsets, nextWordFrequencies, file);
+
+			return new OffHeapLibrary(arena, chars, wordOffsets, frequencies, rowOffsets, nextWords,
+					nextWordFrequencies, lastWord);
+		} catch (IOException | RuntimeException e) {
+			arena.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Counts the chars (UTF-16 code units) the UTF-8 bytes {@code [start, end)}
+	 * decode to.
+	 */
+	private static int charLength(ByteBuffer bytes, int start, int end) {
+		int chars = 0;
+		for (int i = start; i < end; i++) {
+			int b = bytes.get(i) & 0xFF;
+			if ((b & 0xC0) != 0x80) {
+				// Characters of four bytes need a surrogate pair
+				chars += b >= 0xF0 ? 2 : 1;
+			}
+		}
+		return chars;
+	}
+
+	/**
+	 * Builds the alias table of every row into the off-heap table buffers. Each
+	 * row is built in small heap arrays that are reused from row to row.
+	 */
+	private void buildAliasTables() {
+		int[] counts = new int[16];
+		int[] rowThresholds = new int[16];
+		int[] rowAliases = new int[16];
+		for (int id = 0; id < size; id++) {
+			int start = rowOffsets.get(id);
+			int n = rowOffsets.get(id + 1) - start;
+			if (n == 0) {
+				continue;
+			}
+			if (n > counts.length) {
+				counts = new int[n];
+				rowThresholds = new int[n];
+				rowAliases = new int[n];
+			}
+			nextWordFrequencies.get(start, counts, 0, n);
+			rowTotals.put(id, AliasSampler.buildTable(counts, 0, n, rowThresholds, rowAliases));
+			thresholds.put(start, rowThresholds, 0, n);
+			aliases.put(start, rowAliases, 0, n);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String getWord(int id) {
+		checkOpen();
+		int start = wordOffsets.get(id);
+		char[] word = new char[wordOffsets.get(id + 1) - start];
+		chars.get(start, word);
+		return new String(word);
+	}
+
+	@Override
+	public void appendWord(int id, StringBuilder output) {
+		checkOpen();
+		output.append(chars, wordOffsets.get(id), wordOffsets.get(id + 1));
+	}
+
+	@Override
+	public int getWordLength(int id) {
+		checkOpen();
+		return wordOffsets.get(id + 1) - wordOffsets.get(id);
+	}
+
+	@Override
+	public void getWordChars(int id, char[] destination, int offset) {
+		checkOpen();
+		int start = wordOffsets.get(id);
+		chars.get(start, destination, offset, wordOffsets.get(id + 1) - start);
+	}
+
+	@Override
+	public int getId(String word) {
+		checkOpen();
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = compareWord(middle, word);
+			if (compare < 0) {
+				low = middle + 1;
+			} else if (compare > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares the word with the given id to a String, the same way
+	 * {@link String#compareTo(String)} would.
+	 */
+	private int compareWord(int id, String word) {
+		int start = wordOffsets.get(id);
+		int length = wordOffsets.get(id + 1) - start;
+		int common = Math.min(length, word.length());
+		for (int i = 0; i < common; i++) {
+			char c = chars.get(start + i);
+			char other = word.charAt(i);
+			if (c != other) {
+				return c - other;
+			}
+		}
+		return length - word.length();
+	}
+
+	@Override
+	public int getFrequency(int id) {
+		checkOpen();
+		return frequencies.get(id);
+	}
+
+	@Override
+	public int getNextWordCount(int id) {
+		checkOpen();
+		return rowOffsets.get(id + 1) - rowOffsets.get(id);
+	}
+
+	@Override
+	public int getNextWord(int id, int rank) {
+		checkOpen();
+		return nextWords.get(rowOffsets.get(id) + rank);
+	}
+
+	@Override
+	public int getNextWordFrequency(int id, int rank) {
+		checkOpen();
+		return nextWordFrequencies.get(rowOffsets.get(id) + rank);
+	}
+
+	@Override
+	public int getMostProbableNextWord(int id) {
+		checkOpen();
+		int start = rowOffsets.get(id);
+		return start < rowOffsets.get(id + 1) ? nextWords.get(start) : -1;
+	}
+
+	@Override
+	public int getRandomNextWord(int id, RandomGenerator random) {
+		checkOpen();
+		int start = rowOffsets.get(id);
+		int column = start + random.nextInt(rowOffsets.get(id + 1) - start);
+		int value = random.nextInt(rowTotals.get(id));
+		return nextWords.get(value < thresholds.get(column) ? column : start + aliases.get(column));
+	}
+
+	/**
+	 * Get the id of the last word the library was built from.
+	 *
+	 * @return the id of the last word, or -1 if the library is empty
+	 */
+	public int getLastWord() {
+		return lastWord;
+	}
+
+	/**
+	 * Get the total number of adjacent word entries (distinct bigrams).
+	 *
+	 * @return the number of entries
+	 */
+	public int getEntryCount() {
+		return nextWords.capacity();
+	}
+
+	/**
+	 * Get the memory this library takes outside the heap, including the mapped
+	 * snapshot file if there is one.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getOffHeapBytes() {
+		return arena.getAllocatedBytes();
+	}
+
+	/**
+	 * Takes a reference to this library, which keeps its memory from being freed
+	 * until the reference is released.
+	 *
+	 * @return this library
+	 * @throws IllegalStateException if the memory was already freed
+	 */
+	public OffHeapLibrary retain() {
+		for (int count = references.get();; count = references.get()) {
+			if (count == 0) {
+				throw new IllegalStateException("Off-heap library is closed");
+			}
+			if (references.compareAndSet(count, count + 1)) {
+				return this;
+			}
+		}
+	}
+
+	/**
+	 * Gives back a reference taken with {@link #retain()}, freeing the memory if
+	 * it was the last one.
+	 *
+	 * @throws IllegalStateException if no reference is left
+	 */
+	public void release() {
+		int count = references.decrementAndGet();
+		if (count < 0) {
+			references.incrementAndGet();
+			throw new IllegalStateException("Off-heap library released more often than retained");
+		}
+		if (count == 0) {
+			freed = true;
+			arena.close();
+		}
+	}
+
+	/**
+	 * Checks whether the memory of this library was freed.
+	 *
+	 * @return true if the library can't be read any more
+	 */
+	public boolean isClosed() {
+		return freed;
+	}
+
+	/**
+	 * Releases the reference the library was created with, freeing the memory
+	 * unless someone else retained it. Closing more than once does nothing.
+	 */
+	@Override
+	public void close() {
+		if (creatorReleased.compareAndSet(false, true)) {
+			release();
+		}
+	}
+
+	/**
+	 * Fails fast on a read after the memory was freed. Readers that hold a
+	 * reference can't be freed under, so this never races them.
+	 */
+	private void checkOpen() {
+		if (freed) {
+			throw new IllegalStateException("Off-heap library is closed");
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package comprehensive;
+
+/**
+ * What one stage of a pipelined ingest did: how much it processed, how long its
+ * threads were busy, and how long they waited on the stages before and after
+ * it. The stage with the lowest throughput and the least waiting is the one
+ * holding the pipeline back.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/17/25
+ */
+public class PipelineStageStats {
+	private final String name;
+	private final String unit;
+	private final int threads;
+	private final long items;
+	private final long busyNanos;
+	private final long waitNanos;
+
+	/**
+	 * Creates the stats of a stage.
+	 *
+	 * @param name      - name of the stage
+	 * @param unit      - what the stage counts, like "bytes" or "tokens"
+	 * @param threads   - number of threads of the stage
+	 * @param items     - number of units processed by all threads
+	 * @param busyNanos - time all threads spent working, in nanoseconds
+	 * @param waitNanos - time all threads spent waiting on full or empty rings, in
+	 *                  nanoseconds
+	 */
+	PipelineStageStats(String name, String unit, int threads, long items, long busyNanos, long waitNanos) {
+		this.name = name;
+		this.unit = unit;
+		this.threads = threads;
+		this.items = items;
+		this.busyNanos = busyNanos;
+		this.waitNanos = waitNanos;
+	}
+
+	/**
+	 * Get the name of the stage.
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get what the stage counts.
+	 *
+	 * @return the unit, like "bytes" or "tokens"
+	 */
+	public String getUnit() {
+		return unit;
+	}
+
+	/**
+	 * Get the number of threads of the stage.
+	 *
+	 * @return the number of threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Get the number of units the stage processed.
+	 *
+	 * @return the number of units
+	 */
+	public long getItems() {
+		return items;
+	}
+
+	/**
+	 * Get the time the threads of the stage spent working, added together.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getBusyNanos() {
+		return busyNanos;
+	}
+
+	/**
+	 * Get the time the threads of the stage spent waiting for work or for room to
+	 * hand it on, added together.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	/**
+	 * Get the throughput of the stage with all its threads working, which is what
+	 * it could reach if it never had to wait.
+	 *
+	 * @return the number of units per second
+	 */
+	public double getItemsPerSecond() {
+		return busyNanos == 0 ? 0 : items * 1e9 / busyNanos * threads;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d %s on %d thread(s), %.1f M %s/s busy, %.0f%% waiting", name, items, unit, threads,
+				getItemsPerSecond() / 1e6, unit, 100.0 * waitNanos / Math.max(1, busyNanos + waitNanos));
+	}
+}
@@ -0,0 +1,212 @@
+package comprehensive;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the words of a library that start with a given prefix, ranked by how
+ * often they occur, so a partial seed can be completed to a word of the
+ * library.
+ *
+ * The words are kept in alphabetical order, where the words sharing a prefix
+ * form one run that two binary searches find. A segment tree over the
+ * frequencies of that order gives the most frequent word of any run in
+ * O(log n), and the top n words of a run are taken one at a time from a heap
+ * of the runs left over after each pick.
+ *
+ * A frozen library is already numbered alphabetically, so its index only adds
+ * the tree. An index never changes after it is built, and reflects the
+ * frequencies at that time.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/15/25
+ */
+public class PrefixIndex {
+	private final WordGraph graph;
+	// Word id at every alphabetical position, or null if ids are positions
+	private final int[] ids;
+	// Word at every alphabetical position, or null to read them from the graph
+	private final String[] words;
+	private final int[] frequencies;
+	// tree[i] is the position of the most frequent word under node i; the leaves
+	// are tree[size .. 2 * size)
+	private final int[] tree;
+	private final int size;
+
+	/**
+	 * Creates the index of a library.
+	 *
+	 * @param graph        - the library
+	 * @param alphabetical - true if word ids are already alphabetical ranks, as in
+	 *                     a FrozenLibrary or an OffHeapLibrary
+	 */
+	PrefixIndex(WordGraph graph, boolean alphabetical) {
+		this.graph = graph;
+		this.size = graph.size();
+
+		if (alphabetical) {
+			ids = null;
+			words = null;
+		} else {
+			words = new String[size];
+			for (int id = 0; id < size; id++) {
+				words[id] = graph.getWord(id);
+			}
+			Arrays.sort(words);
+			ids = new int[size];
+			for (int position = 0; position < size; position++) {
+				ids[position] = graph.getId(words[position]);
+			}
+		}
+
+		frequencies = new int[size];
+		tree = new int[2 * size];
+		for (int position = 0; position < size; position++) {
+			frequencies[position] = graph.getFrequency(idAt(position));
+			tree[size + position] = position;
+		}
+		for (int node = size - 1; node > 0; node--) {
+			tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+		}
+	}
+
+	/**
+	 * Get the library this index was built for.
+	 *
+	 * @return the library
+	 */
+	WordGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Counts the words that start with a prefix.
+	 *
+	 * @param prefix - lower-case prefix; the empty prefix matches every word
+	 * @return the number of words
+	 */
+	public int countCompletions(String prefix) {
+		int low = lowerBound(prefix);
+		return upperBound(prefix, low) - low;
+	}
+
+	/**
+	 * Finds the most frequent word that starts with a prefix. Ties go to the
+	 * word that comes first alphabetically.
+	 *
+	 * @param prefix - lower-case prefix
+	 * @return the id of the word, or -1 if no word starts with the prefix
+	 */
+	public int getMostFrequentCompletion(String prefix) {
+		int low = lowerBound(prefix);
+		int high = upperBound(prefix, low);
+		return low == high ? -1 : idAt(maxPosition(low, high));
+	}
+
+	/**
+	 * Finds the n most frequent words that start with a prefix, by frequency
+	 * (descending) with ties broken alphabetically (ascending), the same way
+	 * "probable" mode ranks words.
+	 *
+	 * @param prefix - lower-case prefix
+	 * @param n      - maximum number of words
+	 * @return the ids of the words, at most n of them
+	 */
+	public int[] getTopCompletions(String prefix, int n) {
+		int low = lowerBound(prefix);
+		int high = upperBound(prefix, low);
+		int[] result = new int[Math.max(0, Math.min(n, high - low))];
+		if (result.length == 0) {
+			return result;
+		}
+
+		// Every candidate is {position of its best word, start, end} of a run
+		PriorityQueue<int[]> candidates = new PriorityQueue<int[]>(
+				(a, b) -> a[0] == b[0] ? 0 : better(a[0], b[0]) == a[0] ? -1 : 1);
+		candidates.add(new int[] { maxPosition(low, high), low, high });
+		for (int i = 0; i < result.length; i++) {
+			int[] best = candidates.poll();
+			int position = best[0];
+			result[i] = idAt(position);
+
+			// The rest of the run is the words before and after the one just taken
+			if (best[1] < position) {
+				candidates.add(new int[] { maxPosition(best[1], position), best[1], position });
+			}
+			if (position + 1 < best[2]) {
+				candidates.add(new int[] { maxPosition(position + 1, best[2]), position + 1, best[2] });
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the most frequent word in the positions {@code [low, high)}.
+	 */
+	private int maxPosition(int low, int high) {
+		int best = low;
+		for (low += size, high += size; low < high; low >>= 1, high >>= 1) {
+			if ((low & 1) == 1) {
+				best = better(best, tree[low++]);
+			}
+			if ((high & 1) == 1) {
+				best = better(best, tree[--high]);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Picks the more frequent of the words at two positions, or the one that
+	 * comes first alphabetically if they are equally frequent.
+	 */
+	private int better(int position, int other) {
+		if (frequencies[position] != frequencies[other]) {
+			return frequencies[position] > frequencies[other] ? position : other;
+		}
+		return Math.min(position, other);
+	}
+
+	/**
+	 * Finds the first position whose word is not alphabetically before the
+	 * prefix, which is where the words starting with the prefix begin.
+	 */
+	private int lowerBound(String prefix) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (wordAt(middle).compareTo(prefix) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the first position from {@code low} on whose word does not start
+	 * with the prefix.
+	 */
+	private int upperBound(String prefix, int low) {
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (wordAt(middle).startsWith(prefix)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int idAt(int position) {
+		return ids == null ? position : ids[position];
+	}
+
+	private String wordAt(int position) {
+		return words == null ? graph.getWord(position) : words[position];
+	}
+}
@@ -0,0 +1,70 @@
+package comprehensive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import timing.TimingExperiment;
+
+/**
+ * Experiment to measure text-generation time (random mode) for a fixed k
+ * while the vocabulary, and with it the number of adjacent words per word,
+ * grows. With alias sampling the time should stay flat.
+ */
+public class RandomGenerationVocabularyTimingExperiment extends TimingExperiment {
+    private static final String problemSizeDescription = "vocabulary size";
+    private static final int problemSizeMin            =   100;
+    private static final int problemSizeCount          =   10;
+    private static final int problemSizeStep           =   100;
+    private static final int experimentIterationCount  =   20;
+    // Long enough input that most words follow most other words
+    private static final int INPUT_WORD_COUNT = 1_000_000;
+    private static final int WORDS_GENERATED  =   100_000;
+
+    private Generator generator;
+    private int libraryVocabularySize;
+
+    public static void main(String[] args) {
+        new RandomGenerationVocabularyTimingExperiment().printResults();
+    }
+
+    public RandomGenerationVocabularyTimingExperiment() {
+        super(problemSizeDescription,
+              problemSizeMin, problemSizeCount, problemSizeStep,
+              experimentIterationCount);
+    }
+
+    @Override
+    protected void setupExperiment(int problemSize) {
+        // Only build the library (not timed) once per vocabulary size
+        if (generator != null && libraryVocabularySize == problemSize) {
+            return;
+        }
+
+        // Generate a file of random words drawn from 1..problemSize
+        String filePath = "vocabulary_" + problemSize + ".txt";
+        Random rng = new Random(problemSize);
+        try (PrintWriter out = new PrintWriter(new File(filePath))) {
+            for (int i = 0; i < INPUT_WORD_COUNT; i++) {
+                out.print((rng.nextInt(problemSize) + 1) + " ");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        generator = new Generator();
+        try {
+            generator.createLibraryFromFile(filePath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        new File(filePath).delete();
+        libraryVocabularySize = problemSize;
+    }
+
+    @Override
+    protected void runComputation() {
+        generator.generateText("1", WORDS_GENERATED, "random");
+    }
+}
@@ -0,0 +1,203 @@
+package comprehensive;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * GeneratorMetrics that keeps running totals and a latency histogram per mode.
+ * Counters are LongAdders and histograms are LatencyHistograms, so recording
+ * from many threads at once does not contend. The numbers can be read from
+ * code or over JMX after {@link #registerMBean(String)}.
+ *
+ * <pre>
+ * RecordingMetrics metrics = new RecordingMetrics();
+ * metrics.registerMBean("main");
+ * generator.setMetrics(metrics);
+ * </pre>
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/13/25
+ */
+public class RecordingMetrics implements GeneratorMetrics, RecordingMetricsMBean {
+	private final LongAdder tokens = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder ingestNanos = new LongAdder();
+	private final LongAdder restarts = new LongAdder();
+	private final LongAdder samplerHits = new LongAdder();
+	private final LongAdder samplerMisses = new LongAdder();
+	private final LatencyHistogram[] latencies = new LatencyHistogram[GenerationMode.values().length];
+
+	// Shape of the library after the last ingest or load
+	private volatile int vocabularySize;
+	private volatile long bigramCount;
+	private volatile long[] outDegreeHistogram = new long[0];
+
+	public RecordingMetrics() {
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server under
+	 * {@code comprehensive:type=GeneratorMetrics,name=<name>}.
+	 *
+	 * @param name - name that tells these metrics apart from others
+	 * @return the name the MBean was registered under
+	 * @throws JMException If the name is taken or not valid
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName("comprehensive:type=GeneratorMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	@Override
+	public void ingestCompleted(long bytes, long tokens, long nanos, WordGraph library) {
+		this.bytes.add(bytes);
+		this.tokens.add(tokens);
+		this.ingestNanos.add(nanos);
+		describeLibrary(library);
+	}
+
+	@Override
+	public void libraryLoaded(long bytes, long nanos, WordGraph library) {
+		describeLibrary(library);
+	}
+
+	/**
+	 * Counts the words, bigrams and out-degrees of a library.
+	 */
+	private void describeLibrary(WordGraph library) {
+		long bigrams = 0;
+		long[] histogram = new long[33];
+		int highest = 0;
+		for (int id = 0; id < library.size(); id++) {
+			int degree = library.getNextWordCount(id);
+			bigrams += degree;
+			int bucket = 32 - Integer.numberOfLeadingZeros(degree);
+			histogram[bucket]++;
+			highest = Math.max(highest, bucket);
+		}
+		long[] trimmed = new long[highest + 1];
+		System.arraycopy(histogram, 0, trimmed, 0, trimmed.length);
+
+		vocabularySize = library.size();
+		bigramCount = bigrams;
+		outDegreeHistogram = trimmed;
+	}
+
+	@Override
+	public void generationCompleted(GenerationMode mode, int k, long nanos) {
+		latencies[mode.ordinal()].record(nanos);
+	}
+
+	@Override
+	public void restartedFromSeed(GenerationMode mode, long restarts) {
+		this.restarts.add(restarts);
+	}
+
+	@Override
+	public void samplerLookup(boolean hit) {
+		(hit ? samplerHits : samplerMisses).increment();
+	}
+
+	/**
+	 * Get the latency histogram of a mode, in nanoseconds.
+	 *
+	 * @param mode - mode of generation
+	 * @return the histogram
+	 */
+	public LatencyHistogram getLatencyHistogram(GenerationMode mode) {
+		return latencies[mode.ordinal()];
+	}
+
+	@Override
+	public long getTokensIngested() {
+		return tokens.sum();
+	}
+
+	@Override
+	public long getBytesIngested() {
+		return bytes.sum();
+	}
+
+	@Override
+	public double getTokensPerSecond() {
+		return perSecond(tokens.sum());
+	}
+
+	@Override
+	public double getBytesPerSecond() {
+		return perSecond(bytes.sum());
+	}
+
+	private double perSecond(long amount) {
+		long nanos = ingestNanos.sum();
+		return nanos == 0 ? 0 : amount * 1e9 / nanos;
+	}
+
+	@Override
+	public int getVocabularySize() {
+		return vocabularySize;
+	}
+
+	@Override
+	public long getBigramCount() {
+		return bigramCount;
+	}
+
+	@Override
+	public long[] getOutDegreeHistogram() {
+		return outDegreeHistogram.clone();
+	}
+
+	@Override
+	public long getRestartCount() {
+		return restarts.sum();
+	}
+
+	@Override
+	public double getSamplerHitRate() {
+		long hits = samplerHits.sum();
+		long lookups = hits + samplerMisses.sum();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public String getLatencySummary() {
+		StringBuilder summary = new StringBuilder();
+		for (GenerationMode mode : GenerationMode.values()) {
+			LatencyHistogram histogram = latencies[mode.ordinal()];
+			summary.append(mode.name().toLowerCase())
+					.append(": count=").append(histogram.getCount())
+					.append(" p50=").append(histogram.getValueAtPercentile(50) / 1000)
+					.append("us p99=").append(histogram.getValueAtPercentile(99) / 1000)
+					.append("us p99.9=").append(histogram.getValueAtPercentile(99.9) / 1000)
+					.append("us max=").append(histogram.getMax() / 1000)
+					.append("us\n");
+		}
+		return summary.toString();
+	}
+
+	@Override
+	public double getLatencyMicros(String mode, double percentile) {
+		return latencies[GenerationMode.fromString(mode).ordinal()].getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	@Override
+	public void reset() {
+		tokens.reset();
+		bytes.reset();
+		ingestNanos.reset();
+		restarts.reset();
+		samplerHits.reset();
+		samplerMisses.reset();
+		for (LatencyHistogram histogram : latencies) {
+			histogram.reset();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package comprehensive;
+
+/**
+ * The attributes and operations RecordingMetrics shows over JMX.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/13/25
+ */
+public interface RecordingMetricsMBean {
+
+	/**
+	 * @return total number of words ingested
+	 */
+	long getTokensIngested();
+
+	/**
+	 * @return total number of bytes of text ingested
+	 */
+	long getBytesIngested();
+
+	/**
+	 * @return words ingested per second, over all ingestion so far
+	 */
+	double getTokensPerSecond();
+
+	/**
+	 * @return bytes ingested per second, over all ingestion so far
+	 */
+	double getBytesPerSecond();
+
+	/**
+	 * @return number of distinct words in the library after the last ingest or load
+	 */
+	int getVocabularySize();
+
+	/**
+	 * @return number of distinct bigrams in the library after the last ingest or load
+	 */
+	long getBigramCount();
+
+	/**
+	 * @return number of words by out-degree: entry 0 counts the words without
+	 *         adjacent words, and entry i counts the words with 2^(i-1) to
+	 *         2^i - 1 adjacent words
+	 */
+	long[] getOutDegreeHistogram();
+
+	/**
+	 * @return number of times generation restarted from the seed
+	 */
+	long getRestartCount();
+
+	/**
+	 * @return fraction of sampler lookups that found the sampler already built
+	 */
+	double getSamplerHitRate();
+
+	/**
+	 * @return one line per mode with the number of requests and their latency
+	 *         percentiles in microseconds
+	 */
+	String getLatencySummary();
+
+	/**
+	 * Get a latency percentile of one mode.
+	 *
+	 * @param mode       - "random", "deterministic" or "probable"
+	 * @param percentile - percentage from 0 to 100
+	 * @return the latency at the percentile, in microseconds
+	 */
+	double getLatencyMicros(String mode, double percentile);
+
+	/**
+	 * Clears every total and histogram.
+	 */
+	void reset();
+}
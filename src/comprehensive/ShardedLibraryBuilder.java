@@ -0,0 +1,139 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class builds a Generator library from a file on several threads. The
+ * file is cut into shards (byte ranges) that begin and end on an ASCII
+ * delimiter, so no word or UTF-8 character is split between two shards. Every
+ * shard is turned into its own partial library by a fork-join task, and
+ * neighbouring partial libraries are merged with
+ * {@link Generator#appendLibrary(Generator)}, which also counts the bigram that
+ * spans the boundary between them.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/1/25
+ */
+class ShardedLibraryBuilder {
+	// Shards smaller than this are not worth a task of their own
+	private static final long MIN_SHARD_SIZE = 1 << 20;
+	// More shards than threads keeps every thread busy until the end
+	private static final int SHARDS_PER_THREAD = 4;
+	// Size of the windows each shard is mapped in
+	private static final int MAP_WINDOW_SIZE = 1 << 26;
+
+	private ShardedLibraryBuilder() {
+	}
+
+	/**
+	 * Builds the library of a file on the given pool.
+	 *
+	 * @param file - the text file to process
+	 * @param pool - pool that builds and merges the partial libraries
+	 * @return a Generator holding the library of the whole file
+	 * @throws IOException If there's an error reading the file
+	 */
+	static Generator build(Path file, ForkJoinPool pool) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long[] boundaries = findShardBoundaries(channel, pool.getParallelism() * SHARDS_PER_THREAD);
+			try {
+				return pool.invoke(new ShardTask(channel, boundaries, 0, boundaries.length - 1));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Splits the file into at most {@code shardCount} ranges. Every boundary is
+	 * moved forward to the next ASCII delimiter byte.
+	 *
+	 * @return offsets of the shard boundaries, starting with 0 and ending with the
+	 *         file size
+	 */
+	static long[] findShardBoundaries(FileChannel channel, int shardCount) throws IOException {
+		long fileSize = channel.size();
+		shardCount = (int) Math.max(1, Math.min(shardCount, fileSize / MIN_SHARD_SIZE));
+
+		long[] boundaries = new long[shardCount + 1];
+		int count = 1;
+		for (int i = 1; i < shardCount; i++) {
+			long boundary = nextDelimiter(channel, Math.max(fileSize / shardCount * i, boundaries[count - 1]), fileSize);
+			if (boundary > boundaries[count - 1] && boundary < fileSize) {
+				boundaries[count++] = boundary;
+			}
+		}
+		boundaries[count++] = fileSize;
+
+		long[] result = new long[count];
+		System.arraycopy(boundaries, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Finds the offset of the first ASCII delimiter at or after {@code offset}.
+	 *
+	 * @return the offset of the delimiter, or the file size if there is none
+	 */
+	private static long nextDelimiter(FileChannel channel, long offset, long fileSize) throws IOException {
+		while (offset < fileSize) {
+			long size = Math.min(MIN_SHARD_SIZE, fileSize - offset);
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+			for (int i = 0; i < size; i++) {
+				if (WordTokenizer.isAsciiDelimiter(bytes.get(i))) {
+					return offset + i;
+				}
+			}
+			offset += size;
+		}
+		return fileSize;
+	}
+
+	/**
+	 * Builds the partial library of the shards {@code [low, high)}, splitting the
+	 * work in half until a single shard is left.
+	 */
+	private static class ShardTask extends RecursiveTask<Generator> {
+		private static final long serialVersionUID = 1L;
+
+		private final transient FileChannel channel;
+		private final long[] boundaries;
+		private final int low;
+		private final int high;
+
+		ShardTask(FileChannel channel, long[] boundaries, int low, int high) {
+			this.channel = channel;
+			this.boundaries = boundaries;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected Generator compute() {
+			if (high - low == 1) {
+				Generator shard = new Generator();
+				try {
+					shard.addWordsFromRange(channel, boundaries[low], boundaries[high], MAP_WINDOW_SIZE);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return shard;
+			}
+
+			int middle = (low + high) >>> 1;
+			ShardTask left = new ShardTask(channel, boundaries, low, middle);
+			ShardTask right = new ShardTask(channel, boundaries, middle, high);
+			right.fork();
+			Generator merged = left.compute();
+			merged.appendLibrary(right.join());
+			return merged;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package comprehensive;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue between exactly one producer thread and one consumer thread,
+ * which never locks. The items sit in a ring of slots; the producer only moves
+ * the tail and the consumer only moves the head, and each side publishes its
+ * move with a single ordered write that the other side reads. Each side also
+ * keeps the last position it read of the other side, so it only reads the
+ * shared one again when the ring looks full or empty.
+ *
+ * Neither method waits: offer fails on a full ring and poll on an empty one,
+ * and the caller decides how to wait (see {@link #idle(int)}).
+ *
+ * @param <T> type of the items
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/17/25
+ */
+class SpscRing<T> {
+	private final Object[] slots;
+	private final int mask;
+	// Position of the next item to take; written by the consumer only
+	private final AtomicLong head = new AtomicLong();
+	// Position of the next free slot; written by the producer only
+	private final AtomicLong tail = new AtomicLong();
+	// The producer's last read of head, and the consumer's last read of tail
+	private long cachedHead;
+	private long cachedTail;
+
+	/**
+	 * Creates an empty ring.
+	 *
+	 * @param capacity - maximum number of items, rounded up to a power of two
+	 */
+	SpscRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.slots = new Object[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Adds an item unless the ring is full. Called by the producer only.
+	 *
+	 * @param item - the item, not null
+	 * @return true if the item was added
+	 */
+	boolean offer(T item) {
+		long position = tail.get();
+		if (position - cachedHead == slots.length) {
+			cachedHead = head.get();
+			if (position - cachedHead == slots.length) {
+				return false;
+			}
+		}
+		slots[(int) position & mask] = item;
+		// Publishes the item along with the new tail
+		tail.lazySet(position + 1);
+		return true;
+	}
+
+	/**
+	 * Takes the oldest item unless the ring is empty. Called by the consumer only.
+	 *
+	 * @return the item, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	T poll() {
+		long position = head.get();
+		if (position == cachedTail) {
+			cachedTail = tail.get();
+			if (position == cachedTail) {
+				return null;
+			}
+		}
+		int slot = (int) position & mask;
+		T item = (T) slots[slot];
+		slots[slot] = null;
+		head.lazySet(position + 1);
+		return item;
+	}
+
+	/**
+	 * Waits a little before trying a full or empty ring again: first by spinning,
+	 * then by giving up the processor, and then by sleeping, so a side that waits
+	 * long does not take a processor away from the other side.
+	 *
+	 * @param attempt - number of times the ring was tried in a row, from 0
+	 */
+	static void idle(int attempt) {
+		if (attempt < 64) {
+			Thread.onSpinWait();
+		} else if (attempt < 128) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(20_000);
+		}
+	}
+}
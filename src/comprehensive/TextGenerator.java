@@ -1,25 +1,126 @@
 package comprehensive;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * Driver class that takes 4 arguments from command line to generate text: input text file, the
  * "seed" word, k number of words to generate as output, and "probable",
  * "deterministic", and/or "random".
  * 
+ * The input can also be a library snapshot saved earlier, which skips processing the text:
+ * <pre>
+ * TextGenerator --save-snapshot input.txt library.bin
+ * TextGenerator --snapshot library.bin seed k mode
+ * </pre>
+ * 
+ * Longer contexts than one word can be used with an n-gram library of the given order,
+ * in which case the seed can be several words:
+ * <pre>
+ * TextGenerator --order 3 input.txt "seed words" k mode
+ * </pre>
+ * 
+ * A server loads one or more libraries (text files or snapshots) once and then answers
+ * "[@library] seed k mode" lines from standard input, or from local socket connections
+ * if a port is given, until it is stopped (see GenerationServer):
+ * <pre>
+ * TextGenerator --serve [--port n] input.txt library.bin ...
+ * </pre>
+ * 
  * @param args
  */
 public class TextGenerator {
+	// Queries of one connection a server reads ahead of its answers
+	private static final int SERVER_PIPELINE_DEPTH = 256;
 
 	public static void main(String[] args) {
 		Generator generator = new Generator();
 		
+		// Build a library from a text file and save it as a snapshot
+		if (args[0].equals("--save-snapshot")) {
+			try {
+				generator.createLibraryFromFile(args[1]);
+				generator.saveLibrary(args[2]);
+			} catch (IOException fileError) {
+				fileError.printStackTrace();
+			}
+			return;
+		}
+		
+		// Keep the libraries loaded and answer queries until stopped
+		if (args[0].equals("--serve")) {
+			serve(args);
+			return;
+		}
+		
+		// Generate from an n-gram library of the given order
+		if (args[0].equals("--order")) {
+			NGramLibrary ngrams = new NGramLibrary(Integer.parseInt(args[1]));
+			try {
+				ngrams.createLibraryFromFile(args[2]);
+			} catch (IOException fileError) {
+				fileError.printStackTrace();
+			}
+			System.out.println(ngrams.generateText(args[3], Integer.valueOf(args[4]), args[5]));
+			return;
+		}
+		
+		// Load the library from a snapshot instead of a text file
+		boolean snapshot = args[0].equals("--snapshot");
+		int first = snapshot ? 1 : 0;
+		
 		try {
-			generator.createLibraryFromFile(args[0]);
+			if (snapshot) {
+				generator.loadLibrary(args[first]);
+			} else {
+				generator.createLibraryFromFile(args[first]);
+			}
 		} catch (IOException fileError) {
 			fileError.printStackTrace();
 		}
 		
-		System.out.println(generator.generateText(args[1], Integer.valueOf(args[2]), args[3]));
+		// Stream the words to standard output as they are generated, so even a huge k
+		// never has to fit in memory
+		try {
+			generator.generateText(args[first + 1], Integer.parseInt(args[first + 2]), args[first + 3], System.out);
+		} catch (IOException outputError) {
+			outputError.printStackTrace();
+		}
+		System.out.println();
+	}
+	
+	/**
+	 * Runs a GenerationServer for the arguments after "--serve". Each library is
+	 * named after its file.
+	 */
+	private static void serve(String[] args) {
+		boolean socket = args.length > 2 && args[1].equals("--port");
+		int first = socket ? 3 : 1;
+		
+		GenerationServer server = new GenerationServer(SERVER_PIPELINE_DEPTH);
+		try {
+			for (int i = first; i < args.length; i++) {
+				Path file = Paths.get(args[i]);
+				Generator generator = new Generator();
+				if (LibrarySnapshot.isSnapshot(file)) {
+					generator.loadLibrary(args[i]);
+				} else {
+					generator.createLibraryFromFile(args[i]);
+				}
+				server.addLibrary(file.getFileName().toString(), new ConcurrentGenerator(generator));
+			}
+			
+			if (socket) {
+				// The connection threads keep running after main returns
+				int port = server.start(Integer.parseInt(args[2]));
+				System.err.println("Listening on port " + port);
+			} else {
+				server.serve(System.in, System.out);
+				server.close();
+			}
+		} catch (IOException error) {
+			error.printStackTrace();
+		}
 	}
 }
@@ -0,0 +1,186 @@
+package comprehensive;
+
+import java.util.Arrays;
+
+/**
+ * This class interns every distinct word of the library into a dense integer
+ * id (0, 1, 2, ...), so the rest of the Generator can work on ints and only
+ * turn ids back into Strings when text is written out.
+ *
+ * Words are kept in an open-addressing hash table that stores ids instead of
+ * boxed values. Words can be interned straight from a char buffer, so a
+ * tokenizer never has to allocate a String for a word that is already known.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 4/28/25
+ */
+public class Vocabulary {
+	private static final int EMPTY = -1;
+
+	private String[] words;
+	private int[] hashes;
+	private int[] table;
+	private int size;
+
+	/**
+	 * Creates an empty vocabulary.
+	 */
+	public Vocabulary() {
+		this.words = new String[16];
+		this.hashes = new int[16];
+		this.table = new int[32];
+		Arrays.fill(table, EMPTY);
+		this.size = 0;
+	}
+
+	/**
+	 * Get the number of distinct words in this vocabulary.
+	 *
+	 * @return the number of interned words
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the word that was interned under the given id.
+	 *
+	 * @param id - the id of the word
+	 * @return the word
+	 */
+	public String getWord(int id) {
+		return words[id];
+	}
+
+	/**
+	 * Looks up the id of a word without adding it.
+	 *
+	 * @param word - the word to look up
+	 * @return the id of the word, or -1 if it is not in the vocabulary
+	 */
+	public int getId(String word) {
+		int hash = word.hashCode();
+		int mask = table.length - 1;
+		for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+			int id = table[slot];
+			if (id == EMPTY) {
+				return -1;
+			}
+			if (hashes[id] == hash && words[id].equals(word)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Returns the id of the given word, adding it to the vocabulary if it has not
+	 * been seen before.
+	 *
+	 * @param word - the word to intern
+	 * @return the id of the word
+	 */
+	public int intern(String word) {
+		int hash = word.hashCode();
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		for (;; slot = (slot + 1) & mask) {
+			int id = table[slot];
+			if (id == EMPTY) {
+				break;
+			}
+			if (hashes[id] == hash && words[id].equals(word)) {
+				return id;
+			}
+		}
+		return add(word, hash, slot);
+	}
+
+	/**
+	 * Returns the id of the word held in the first {@code length} chars of the
+	 * buffer, adding it to the vocabulary if it has not been seen before. A String
+	 * is only created when the word is new.
+	 *
+	 * @param chars  - buffer holding the word
+	 * @param length - number of chars of the word
+	 * @return the id of the word
+	 */
+	public int intern(char[] chars, int length) {
+		// Same hash String.hashCode() would produce, so both intern methods agree
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		for (;; slot = (slot + 1) & mask) {
+			int id = table[slot];
+			if (id == EMPTY) {
+				break;
+			}
+			if (hashes[id] == hash && matches(words[id], chars, length)) {
+				return id;
+			}
+		}
+		return add(new String(chars, 0, length), hash, slot);
+	}
+
+	/**
+	 * Stores a new word in the given free slot and grows the table if needed.
+	 */
+	private int add(String word, int hash, int slot) {
+		int id = size++;
+		if (id == words.length) {
+			words = Arrays.copyOf(words, id * 2);
+			hashes = Arrays.copyOf(hashes, id * 2);
+		}
+		words[id] = word;
+		hashes[id] = hash;
+		table[slot] = id;
+
+		// Keep the table at most half full so probe sequences stay short
+		if (size * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+		return id;
+	}
+
+	/**
+	 * Rebuilds the slot table with the given capacity.
+	 */
+	private void rehash(int capacity) {
+		int[] newTable = new int[capacity];
+		Arrays.fill(newTable, EMPTY);
+		int mask = capacity - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = mix(hashes[id]) & mask;
+			while (newTable[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			newTable[slot] = id;
+		}
+		table = newTable;
+	}
+
+	/**
+	 * Compares a stored word against the chars of a buffer.
+	 */
+	private static boolean matches(String word, char[] chars, int length) {
+		if (word.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (word.charAt(i) != chars[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Spreads the high bits of a String hash into the low bits used for slots.
+	 */
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
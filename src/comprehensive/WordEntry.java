@@ -1,36 +1,43 @@
 package comprehensive;
 
-import java.util.HashMap;
-
 /**
  * This class represents one entry. It acts as a compact way to store multiple
- * values inside the Generator class's HashTable. More specifically, it stores
- * the word, its frequency in the list. AdjacentWords is a HashMap that stores
- * the word as its {@code Key} and its frequency after this word as its
+ * values inside the Generator class's library. More specifically, it stores
+ * the word, its id in the Generator's Vocabulary and its frequency in the list.
+ * AdjacentWords is an IntCountMap that stores the id of each word that comes
+ * after this one as its {@code key} and its frequency after this word as its
  * {@code value}.
- * 
+ *
  * @author Kent Wilkison and Brady Nelson
- * @version 4/22/2025
+ * @version 4/28/2025
  */
 public class WordEntry {
 	private String word;
+	private int id;
 	private int frequency;
-	private HashMap<String, Integer> adjacentWords;
+	private IntCountMap adjacentWords;
+	// Built from adjacentWords on first use and dropped whenever they change
+	private AliasSampler sampler;
+	private int mostProbableNextWord;
+	private int[] sortedNextWords;
 
 	/**
 	 * Basic constructor for a WordEntry.
-	 * 
+	 *
+	 * @param id   - The id of the word in the Generator's Vocabulary
 	 * @param word - The word to be associated with this WordEntry
 	 */
-	public WordEntry(String word) {
+	public WordEntry(int id, String word) {
+		this.id = id;
 		this.word = word;
 		this.frequency = 0;
-		this.adjacentWords = new HashMap<>();
+		this.adjacentWords = new IntCountMap();
+		this.mostProbableNextWord = -1;
 	}
 
 	/**
 	 * Get this word's frequency.
-	 * 
+	 *
 	 * @return
 	 */
 	public int getFrequency() {
@@ -45,17 +52,154 @@ public class WordEntry {
 	}
 
 	/**
-	 * Get the adjacent words HashMap for this word.
-	 * 
-	 * @return the adjacent words HashMap
+	 * Add several occurrences of this word at once.
+	 *
+	 * @param count - number of occurrences to add
+	 */
+	public void addOccurrences(int count) {
+		this.frequency += count;
+	}
+
+	/**
+	 * Get the adjacent words map for this word, keyed by word id.
+	 *
+	 * @return the adjacent words map
 	 */
-	public HashMap<String, Integer> getAdjacentWords() {
+	public IntCountMap getAdjacentWords() {
 		return this.adjacentWords;
 	}
-	
+
+	/**
+	 * Checks whether the sampler is built and up to date, so
+	 * {@link #getSampler()} will not have to build it.
+	 *
+	 * @return true if the sampler is ready
+	 */
+	public boolean hasSampler() {
+		return sampler != null;
+	}
+
+	/**
+	 * Get the alias table used to pick a random adjacent word, building it if the
+	 * adjacent words changed since it was last used.
+	 *
+	 * @return the sampler, or null if this word has no adjacent words
+	 */
+	public AliasSampler getSampler() {
+		AliasSampler current = sampler;
+		if (current == null && !adjacentWords.isEmpty()) {
+			current = new AliasSampler(adjacentWords);
+			sampler = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Get the adjacent word with the highest frequency. Ties are broken by
+	 * choosing the alphabetically smallest word. The answer is remembered until
+	 * the adjacent words change.
+	 *
+	 * @param vocabulary - vocabulary the adjacent word ids belong to
+	 * @return the id of the most probable next word, or -1 if this word has no
+	 *         adjacent words
+	 */
+	public int getMostProbableNextWord(Vocabulary vocabulary) {
+		if (mostProbableNextWord != -1 || adjacentWords.isEmpty()) {
+			return mostProbableNextWord;
+		}
+
+		int maxFreq = -1;
+		int nextWord = -1;
+		for (int slot = 0; slot < adjacentWords.capacity(); slot++) {
+			int word = adjacentWords.keyAt(slot);
+			if (word == IntCountMap.EMPTY) {
+				continue;
+			}
+			int freq = adjacentWords.countAt(slot);
+			if (freq > maxFreq || (freq == maxFreq
+					&& vocabulary.getWord(word).compareTo(vocabulary.getWord(nextWord)) < 0)) {
+				maxFreq = freq;
+				nextWord = word;
+			}
+		}
+		mostProbableNextWord = nextWord;
+		return nextWord;
+	}
+
+	/**
+	 * Get the ids of all adjacent words sorted by frequency (descending), with
+	 * ties sorted alphabetically (ascending). The array is built once and reused
+	 * until the adjacent words change, so it must not be modified.
+	 *
+	 * @param vocabulary - vocabulary the adjacent word ids belong to
+	 * @return the sorted adjacent word ids
+	 */
+	public int[] getSortedNextWords(Vocabulary vocabulary) {
+		int[] sorted = sortedNextWords;
+		if (sorted != null) {
+			return sorted;
+		}
+
+		sorted = new int[adjacentWords.size()];
+		int[] counts = new int[sorted.length];
+		int n = 0;
+		for (int slot = 0; slot < adjacentWords.capacity(); slot++) {
+			if (adjacentWords.keyAt(slot) != IntCountMap.EMPTY) {
+				sorted[n] = adjacentWords.keyAt(slot);
+				counts[n] = adjacentWords.countAt(slot);
+				n++;
+			}
+		}
+		mergeSort(sorted, counts, new int[n], new int[n], 0, n, vocabulary);
+
+		sortedNextWords = sorted;
+		return sorted;
+	}
+
+	/**
+	 * Sorts the range [from, to) of the ids, together with their counts, by count
+	 * (descending) and then by word (ascending). Works on primitive arrays so no
+	 * boxing is needed.
+	 */
+	static void mergeSort(int[] ids, int[] counts, int[] idBuffer, int[] countBuffer, int from, int to,
+			Vocabulary vocabulary) {
+		if (to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(ids, counts, idBuffer, countBuffer, from, middle, vocabulary);
+		mergeSort(ids, counts, idBuffer, countBuffer, middle, to, vocabulary);
+
+		// Merge both halves into the buffers, then copy them back
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++) {
+			boolean takeLeft;
+			if (right == to) {
+				takeLeft = true;
+			} else if (left == middle) {
+				takeLeft = false;
+			} else if (counts[left] != counts[right]) {
+				takeLeft = counts[left] > counts[right];
+			} else {
+				takeLeft = vocabulary.getWord(ids[left]).compareTo(vocabulary.getWord(ids[right])) <= 0;
+			}
+
+			if (takeLeft) {
+				idBuffer[i] = ids[left];
+				countBuffer[i] = counts[left++];
+			} else {
+				idBuffer[i] = ids[right];
+				countBuffer[i] = counts[right++];
+			}
+		}
+		System.arraycopy(idBuffer, from, ids, from, to - from);
+		System.arraycopy(countBuffer, from, counts, from, to - from);
+	}
+
 	/**
 	 * Get the word associated with this WordEntry.
-	 * 
+	 *
 	 * @return the word
 	 */
 	public String getWord() {
@@ -63,13 +207,67 @@ public class WordEntry {
 	}
 
 	/**
-	 * This function takes a word and tries to put it into the AdjacentWord HashMap.
+	 * Get the id of this word in the Generator's Vocabulary.
+	 *
+	 * @return the word id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * This function takes a word id and tries to put it into the AdjacentWord map.
 	 * If it exists, it just increments the frequency count of that word instead of adding a new entry.
-	 * 
-	 * @param word - the word that comes after the first word, to be added to the
-	 * HashMap.
+	 *
+	 * @param wordId - the id of the word that comes after the first word, to be added to the
+	 * map.
+	 */
+	public void addAdjacentWord(int wordId) {
+		adjacentWords.add(wordId, 1);
+		sampler = null;
+		mostProbableNextWord = -1;
+		sortedNextWords = null;
+	}
+
+	/**
+	 * Replaces the adjacent words of this word with ones counted elsewhere.
+	 *
+	 * @param adjacentWords - the adjacent words and their counts
+	 */
+	void setAdjacentWords(IntCountMap adjacentWords) {
+		this.adjacentWords = adjacentWords;
+		sampler = null;
+		mostProbableNextWord = -1;
+		sortedNextWords = null;
+	}
+
+	/**
+	 * Removes the adjacent words that came after this word fewer than a minimum
+	 * number of times.
+	 *
+	 * @param minCount - smallest count that is kept
+	 * @return the number of adjacent words removed
+	 */
+	public int removeAdjacentWordsBelow(int minCount) {
+		int removed = adjacentWords.removeBelow(minCount);
+		if (removed > 0) {
+			sampler = null;
+			mostProbableNextWord = -1;
+			sortedNextWords = null;
+		}
+		return removed;
+	}
+
+	/**
+	 * Adds the given number of occurrences of a word after this word.
+	 *
+	 * @param wordId - the id of the word that comes after the first word
+	 * @param count - number of times it came after the first word
 	 */
-	public void addAdjacentWord(String word) {
-		adjacentWords.put(word, adjacentWords.getOrDefault(word, 0) + 1);
+	public void addAdjacentWord(int wordId, int count) {
+		adjacentWords.add(wordId, count);
+		sampler = null;
+		mostProbableNextWord = -1;
+		sortedNextWords = null;
 	}
 }
@@ -0,0 +1,124 @@
+package comprehensive;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * The read-only view of a library that text generation runs against. Every word
+ * has an integer id, and the adjacent words of a word are ranked the way
+ * "probable" mode lists them: by frequency (descending), with ties broken
+ * alphabetically (ascending).
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 5/8/25
+ */
+public interface WordGraph {
+
+	/**
+	 * Get the number of distinct words.
+	 *
+	 * @return the number of words
+	 */
+	int size();
+
+	/**
+	 * Get the word with the given id.
+	 *
+	 * @param id - id of the word
+	 * @return the word
+	 */
+	String getWord(int id);
+
+	/**
+	 * Appends the word with the given id to a StringBuilder. Libraries that do
+	 * not keep their words as Strings copy the chars straight into the builder,
+	 * so building output does not allocate a String per word.
+	 *
+	 * @param id     - id of the word
+	 * @param output - builder the word is appended to
+	 */
+	default void appendWord(int id, StringBuilder output) {
+		output.append(getWord(id));
+	}
+
+	/**
+	 * Get the number of chars of the word with the given id.
+	 *
+	 * @param id - id of the word
+	 * @return the length of the word
+	 */
+	default int getWordLength(int id) {
+		return getWord(id).length();
+	}
+
+	/**
+	 * Copies the word with the given id into a char array, without creating a
+	 * String for it in libraries that do not keep their words as Strings.
+	 *
+	 * @param id          - id of the word
+	 * @param destination - array the word is copied to
+	 * @param offset      - index in destination of the first char of the word
+	 */
+	default void getWordChars(int id, char[] destination, int offset) {
+		String word = getWord(id);
+		word.getChars(0, word.length(), destination, offset);
+	}
+
+	/**
+	 * Looks up the id of a lower-case word.
+	 *
+	 * @param word - the word to look up
+	 * @return the id of the word, or -1 if it is not in the library
+	 */
+	int getId(String word);
+
+	/**
+	 * Get the number of times a word occurs in the text.
+	 *
+	 * @param id - id of the word
+	 * @return the frequency of the word
+	 */
+	int getFrequency(int id);
+
+	/**
+	 * Get the number of distinct words that follow a word.
+	 *
+	 * @param id - id of the word
+	 * @return the number of adjacent words
+	 */
+	int getNextWordCount(int id);
+
+	/**
+	 * Get an adjacent word by its rank.
+	 *
+	 * @param id   - id of the word
+	 * @param rank - rank of the adjacent word, 0 being the most probable
+	 * @return the id of the adjacent word
+	 */
+	int getNextWord(int id, int rank);
+
+	/**
+	 * Get how often an adjacent word follows a word.
+	 *
+	 * @param id   - id of the word
+	 * @param rank - rank of the adjacent word, 0 being the most probable
+	 * @return the frequency of the adjacent word after this word
+	 */
+	int getNextWordFrequency(int id, int rank);
+
+	/**
+	 * Get the most probable adjacent word, which is the one of rank 0.
+	 *
+	 * @param id - id of the word
+	 * @return the id of the adjacent word, or -1 if the word has none
+	 */
+	int getMostProbableNextWord(int id);
+
+	/**
+	 * Picks a random adjacent word, weighted by how often it follows the word.
+	 *
+	 * @param id     - id of a word with at least one adjacent word
+	 * @param random - source of random numbers
+	 * @return the id of the chosen word
+	 */
+	int getRandomNextWord(int id, RandomGenerator random);
+}
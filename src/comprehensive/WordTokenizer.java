@@ -0,0 +1,273 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * This class splits UTF-8 encoded bytes into lower-case words. It produces
+ * exactly the same words as a Scanner using the delimiter
+ * {@code [^\p{L}\p{N}_']+} followed by {@code trim()} and
+ * {@code toLowerCase()}, without creating any Strings along the way.
+ *
+ * Bytes are fed in chunks of any size. A word or a multi-byte character that
+ * is cut off at the end of one chunk is continued by the next one, and the
+ * last word is emitted by {@link #finish(TokenSink)}. ASCII characters are
+ * classified and lower-cased with precomputed tables; everything else falls
+ * back to {@link Character#getType(int)} and {@link String#toLowerCase()}.
+ *
+ * @author Kent Wilkison and Brady Nelson
+ * @version 4/29/25
+ */
+public class WordTokenizer {
+
+	/**
+	 * Receives every word found by the tokenizer. The chars are only valid for
+	 * the duration of the call.
+	 */
+	public interface TokenSink {
+		void acceptToken(char[] chars, int length);
+	}
+
+	// Size of the chunks a channel is read in
+	private static final int READ_BUFFER_SIZE = 1 << 20;
+
+	// Classes of the ASCII characters
+	private static final byte DELIMITER = 0;
+	private static final byte WORD = 1;
+	private static final byte WORD_FULL_LOWER_CASE = 2;
+
+	private final byte[] asciiClass;
+	private final char[] asciiLower;
+
+	private char[] token;
+	private int length;
+	private boolean needsFullLowerCase;
+
+	// State of a multi-byte character that has not been completely read yet
+	private int codePoint;
+	private int pendingBytes;
+	private int minCodePoint;
+
+	/**
+	 * Creates a tokenizer that lower-cases words with the default locale, the
+	 * same way {@link String#toLowerCase()} does.
+	 */
+	public WordTokenizer() {
+		this.asciiClass = new byte[128];
+		this.asciiLower = new char[128];
+		for (char c = 0; c < 128; c++) {
+			asciiLower[c] = c;
+			if (Character.isLetterOrDigit(c) || c == '_' || c == '\'') {
+				// Some locales (Turkish, for example) do not lower-case 'I' to 'i',
+				// so those letters take the slow path
+				String lower = String.valueOf(c).toLowerCase();
+				if (lower.length() == 1 && lower.charAt(0) < 128) {
+					asciiClass[c] = WORD;
+					asciiLower[c] = lower.charAt(0);
+				} else {
+					asciiClass[c] = WORD_FULL_LOWER_CASE;
+				}
+			}
+		}
+		this.token = new char[64];
+	}
+
+	/**
+	 * Checks whether a byte is an ASCII character that separates words. Such a
+	 * byte can never be part of a multi-byte UTF-8 character, so it is a safe
+	 * place to split UTF-8 text.
+	 *
+	 * @param b - the byte to check
+	 * @return true if the byte is an ASCII delimiter
+	 */
+	public static boolean isAsciiDelimiter(byte b) {
+		return b >= 0 && !(Character.isLetterOrDigit(b) || b == '_' || b == '\'');
+	}
+
+	/**
+	 * Reads all remaining bytes of the buffer and passes every completed word to
+	 * the sink.
+	 *
+	 * @param bytes - UTF-8 encoded text, read from its position to its limit
+	 * @param sink  - receives the words
+	 */
+	public void feed(ByteBuffer bytes, TokenSink sink) {
+		int limit = bytes.limit();
+		for (int pos = bytes.position(); pos < limit; pos++) {
+			int b = bytes.get(pos);
+
+			// Continue a multi-byte character
+			if (pendingBytes > 0) {
+				if ((b & 0xC0) == 0x80) {
+					codePoint = (codePoint << 6) | (b & 0x3F);
+					if (--pendingBytes == 0) {
+						acceptCodePoint(sink);
+					}
+					continue;
+				}
+				// A malformed sequence decodes to U+FFFD, which is a delimiter
+				pendingBytes = 0;
+				endToken(sink);
+			}
+
+			if (b >= 0) {
+				// ASCII fast path
+				byte type = asciiClass[b];
+				if (type == WORD) {
+					append(asciiLower[b]);
+				} else if (type == WORD_FULL_LOWER_CASE) {
+					append((char) b);
+					needsFullLowerCase = true;
+				} else {
+					endToken(sink);
+				}
+			} else if ((b & 0xE0) == 0xC0) {
+				startCodePoint(b & 0x1F, 1, 0x80);
+			} else if ((b & 0xF0) == 0xE0) {
+				startCodePoint(b & 0x0F, 2, 0x800);
+			} else if ((b & 0xF8) == 0xF0) {
+				startCodePoint(b & 0x07, 3, 0x10000);
+			} else {
+				// Stray continuation byte or invalid lead byte
+				endToken(sink);
+			}
+		}
+		bytes.position(limit);
+	}
+
+	/**
+	 * Reads a channel to its end one chunk at a time, feeds every chunk and then
+	 * finishes, so every word of the channel is passed to the sink.
+	 *
+	 * @param channel - channel of UTF-8 text
+	 * @param sink    - receives the words
+	 * @return the number of bytes read
+	 * @throws IOException If there's an error reading the channel
+	 */
+	public long feedAll(ReadableByteChannel channel, TokenSink sink) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		long bytes = 0;
+
+		// Words cut off at the end of a chunk are continued when the next chunk
+		// arrives
+		while (channel.read(buffer) != -1) {
+			buffer.flip();
+			bytes += buffer.remaining();
+			feed(buffer, sink);
+			buffer.clear();
+		}
+		finish(sink);
+		return bytes;
+	}
+
+	/**
+	 * Emits the word that is still being read, if any. Call this once the whole
+	 * input has been fed.
+	 *
+	 * @param sink - receives the last word
+	 */
+	public void finish(TokenSink sink) {
+		// A truncated character at the end of the input is a delimiter too
+		pendingBytes = 0;
+		endToken(sink);
+	}
+
+	/**
+	 * Forgets any partially read word or character.
+	 */
+	public void reset() {
+		pendingBytes = 0;
+		length = 0;
+		needsFullLowerCase = false;
+	}
+
+	/**
+	 * Starts reading a character encoded with more than one byte.
+	 */
+	private void startCodePoint(int bits, int continuationBytes, int min) {
+		codePoint = bits;
+		pendingBytes = continuationBytes;
+		minCodePoint = min;
+	}
+
+	/**
+	 * Handles a fully decoded non-ASCII character.
+	 */
+	private void acceptCodePoint(TokenSink sink) {
+		int cp = codePoint;
+
+		// Overlong encodings, surrogates and values past U+10FFFF are malformed
+		if (cp < minCodePoint || cp > Character.MAX_CODE_POINT
+				|| (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+			endToken(sink);
+			return;
+		}
+
+		if (isWordCodePoint(cp)) {
+			if (Character.isBmpCodePoint(cp)) {
+				append((char) cp);
+			} else {
+				append(Character.highSurrogate(cp));
+				append(Character.lowSurrogate(cp));
+			}
+			needsFullLowerCase = true;
+		} else {
+			endToken(sink);
+		}
+	}
+
+	/**
+	 * Checks whether a character belongs to {@code [\p{L}\p{N}_']}.
+	 */
+	private static boolean isWordCodePoint(int cp) {
+		switch (Character.getType(cp)) {
+			case Character.UPPERCASE_LETTER:
+			case Character.LOWERCASE_LETTER:
+			case Character.TITLECASE_LETTER:
+			case Character.MODIFIER_LETTER:
+			case Character.OTHER_LETTER:
+			case Character.DECIMAL_DIGIT_NUMBER:
+			case Character.LETTER_NUMBER:
+			case Character.OTHER_NUMBER:
+				return true;
+			default:
+				return cp == '_' || cp == '\'';
+		}
+	}
+
+	/**
+	 * Adds one char to the current word.
+	 */
+	private void append(char c) {
+		if (length == token.length) {
+			char[] bigger = new char[length * 2];
+			System.arraycopy(token, 0, bigger, 0, length);
+			token = bigger;
+		}
+		token[length++] = c;
+	}
+
+	/**
+	 * Passes the current word to the sink, if there is one, and starts a new word.
+	 */
+	private void endToken(TokenSink sink) {
+		if (length == 0) {
+			return;
+		}
+
+		// Words with non-ASCII characters are lower-cased exactly like String does,
+		// since some characters change length or depend on their neighbours
+		if (needsFullLowerCase) {
+			String lower = new String(token, 0, length).toLowerCase();
+			length = 0;
+			for (int i = 0; i < lower.length(); i++) {
+				append(lower.charAt(i));
+			}
+			needsFullLowerCase = false;
+		}
+
+		sink.acceptToken(token, length);
+		length = 0;
+	}
+}